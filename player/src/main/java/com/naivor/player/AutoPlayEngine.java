@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player;
+
+import android.graphics.Rect;
+import android.view.ViewGroup;
+
+import com.naivor.player.constant.ScreenState;
+import com.naivor.player.constant.VideoState;
+import com.naivor.player.core.PlayerCore;
+
+import lombok.Getter;
+import lombok.NonNull;
+import timber.log.Timber;
+
+/**
+ * list 中按可见比例自动播放，播放可见面积最大的视频
+ * <p>
+ * 每个停止滑动的帧计算一次屏幕上每个 VideoPlayer 的可见比例，只遍历可见的 item；
+ * 可见比例达到 playRatio 的视频中选最大的播放，正在播放的低于 stopRatio 才会被换掉或停止，
+ * 两个视频可见比例差不多时不会来回切换
+ * <p>
+ * 只在主线程使用
+ * <p>
+ * Created by naivor on 17-9-1.
+ */
+
+public final class AutoPlayEngine {
+
+    public static final float DEFAULT_PLAY_RATIO = 0.6f;  //默认可见60%开始播放
+    public static final float DEFAULT_STOP_RATIO = 0.3f;  //默认可见低于30%停止播放
+
+    @Getter
+    private final float playRatio;
+    @Getter
+    private final float stopRatio;
+
+    //计算可见区域时复用
+    private final Rect visibleRect = new Rect();
+
+    public AutoPlayEngine() {
+        this(DEFAULT_PLAY_RATIO, DEFAULT_STOP_RATIO);
+    }
+
+    /**
+     * @param playRatio 可见比例达到多少开始播放，0到1
+     * @param stopRatio 正在播放的视频可见比例低于多少停止，不能大于 playRatio
+     */
+    public AutoPlayEngine(float playRatio, float stopRatio) {
+        if (playRatio <= 0 || playRatio > 1 || stopRatio < 0 || stopRatio > playRatio) {
+            throw new IllegalArgumentException("Invalid ratio, play: " + playRatio + ", stop: " + stopRatio);
+        }
+
+        this.playRatio = playRatio;
+        this.stopRatio = stopRatio;
+    }
+
+    /**
+     * 根据可见比例选择播放的视频，list 停止滑动的帧调用
+     *
+     * @param listView
+     */
+    public void update(@NonNull ViewGroup listView) {
+        VideoPlayer active = ListVideoHelper.currentPlayingPlayer;
+
+        if (active != null) {
+            if (active.getVideoState() == VideoState.CURRENT_STATE_ORIGIN) {
+                active = null;
+            } else if (active.getScreenState() != ScreenState.SCREEN_LAYOUT_LIST) {
+                return;    //全屏或者小窗中，不处理
+            }
+        }
+
+        float activeRatio = 0;
+        VideoPlayer best = null;
+        float bestRatio = 0;
+
+        int childCount = listView.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            VideoPlayer player = ListVideoHelper.findVideoPlayer(listView.getChildAt(i));
+            //播放完成或者出错时已经解绑，不再是 active，跳过，让给下一个视频
+            if (player == null || isFinished(player)) {
+                continue;
+            }
+
+            float ratio = ListVideoHelper.getVisibleRatio(player, visibleRect);
+            if (player == active) {
+                activeRatio = ratio;
+            } else if (ratio > bestRatio) {
+                best = player;
+                bestRatio = ratio;
+            }
+        }
+
+        //正在播放或者暂停的视频还看得见时继续，不切换
+        if (active != null && activeRatio >= stopRatio && !isFinished(active)) {
+            return;
+        }
+
+        if (best != null && bestRatio >= playRatio) {
+            Timber.d("自动播放，可见比例：%s", bestRatio);
+
+            if (best.autoPlay()) {
+                return;
+            }
+        }
+
+        if (active != null && activeRatio < stopRatio) {
+            Timber.i("可见比例过低，停止播放");
+
+            active.stopAndReset();
+            PlayerCore.instance(listView.getContext()).recyclePlayer();
+        }
+    }
+
+    /**
+     * 是否播放完成或者出错
+     *
+     * @param player
+     * @return
+     */
+    private static boolean isFinished(VideoPlayer player) {
+        int videoState = player.getVideoState();
+        return videoState == VideoState.CURRENT_STATE_COMPLETE || videoState == VideoState.CURRENT_STATE_ERROR;
+    }
+}
@@ -18,8 +18,10 @@ package com.naivor.player;
 
 import android.app.Activity;
 import android.content.Context;
+import android.graphics.Rect;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
@@ -28,10 +30,13 @@ import android.widget.ListView;
 
 import com.naivor.player.constant.VideoState;
 import com.naivor.player.core.PlayerCore;
+import com.naivor.player.core.VideoUrlProvider;
 import com.naivor.player.utils.VideoUtils;
 
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
 
 import lombok.NonNull;
 import timber.log.Timber;
@@ -43,6 +48,8 @@ import timber.log.Timber;
  */
 
 public final class ListVideoHelper {
+    public static final int DEFAULT_PRELOAD_COUNT = 2;  //默认预加载滑动方向上的2个视频
+
     protected static WeakReference<View> containerReference;
     protected static SoftReference<VideoPlayer> reference;
 
@@ -66,6 +73,65 @@ public final class ListVideoHelper {
 
     protected static int tinyWindowPosition;
 
+    //预加载
+    protected static VideoUrlProvider urlProvider;
+    protected static int preloadCount = DEFAULT_PRELOAD_COUNT;
+    protected static final List<String> preloadUrls = new ArrayList<>();
+
+    //滑动处理，每帧最多一次，fling 时暂停，停下来后再处理
+    protected static boolean scrollFramePending;
+    protected static boolean flinging;
+
+    //按可见比例自动播放，没有设置时不自动播放
+    protected static AutoPlayEngine autoPlayEngine;
+    //多个视频同时静音播放，没有设置时不静音播放
+    protected static MutedAutoPlayEngine mutedAutoPlayEngine;
+
+    //item 中没有 VideoPlayer 时缓存的标记
+    private static final Object NO_PLAYER = new Object();
+
+    private static final ViewTreeObserver.OnScrollChangedListener scrollChangedListener =
+            new ViewTreeObserver.OnScrollChangedListener() {
+                @Override
+                public void onScrollChanged() {
+                    requestProcessScroll();
+                }
+            };
+
+    //第一次显示或者数据变化时也要选择自动播放的视频
+    private static final ViewTreeObserver.OnGlobalLayoutListener globalLayoutListener =
+            new ViewTreeObserver.OnGlobalLayoutListener() {
+                @Override
+                public void onGlobalLayout() {
+                    if (autoPlayEngine != null || mutedAutoPlayEngine != null) {
+                        requestProcessScroll();
+                    }
+                }
+            };
+
+    private static final Choreographer.FrameCallback scrollFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            scrollFramePending = false;
+
+            if (!flinging) {
+                processScroll();
+            }
+        }
+    };
+
+    private static final RecyclerView.OnScrollListener recyclerScrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            boolean wasFlinging = flinging;
+            flinging = newState == RecyclerView.SCROLL_STATE_SETTLING;
+
+            if (wasFlinging && !flinging) {
+                requestProcessScroll();
+            }
+        }
+    };
+
     private ListVideoHelper() {
     }
 
@@ -104,21 +170,73 @@ public final class ListVideoHelper {
 
             containerReference = new WeakReference<View>(listView);
 
-            listView.getViewTreeObserver().addOnScrollChangedListener(new ViewTreeObserver.OnScrollChangedListener() {
-                @Override
-                public void onScrollChanged() {
-                    if (listView instanceof RecyclerView) {
-                        processRecyclerScroll((RecyclerView) listView);
-                    } else if (listView instanceof ListView) {
-                        processListViewScroll((ListView) listView);
-                    } else {
-                        processOtherScroll(listView);
-                    }
-                }
-            });
+            //重复初始化时不重复注册
+            ViewTreeObserver observer = listView.getViewTreeObserver();
+            observer.removeOnScrollChangedListener(scrollChangedListener);
+            observer.addOnScrollChangedListener(scrollChangedListener);
+            observer.removeOnGlobalLayoutListener(globalLayoutListener);
+            observer.addOnGlobalLayoutListener(globalLayoutListener);
+
+            //ListView 只能设置一个 OnScrollListener，不抢使用者的，只按帧合并
+            if (listView instanceof RecyclerView) {
+                RecyclerView recyclerView = (RecyclerView) listView;
+                recyclerView.removeOnScrollListener(recyclerScrollListener);
+                recyclerView.addOnScrollListener(recyclerScrollListener);
+            }
+        }
+    }
+
+    /**
+     * 请求在下一帧处理滑动，一帧内多次滑动只处理一次
+     */
+    protected static void requestProcessScroll() {
+        if (!scrollFramePending && !flinging) {
+            scrollFramePending = true;
+            Choreographer.getInstance().postFrameCallback(scrollFrameCallback);
         }
     }
 
+    /**
+     * 处理滑动
+     */
+    protected static void processScroll() {
+        View container = containerReference != null ? containerReference.get() : null;
+
+        if (container instanceof RecyclerView) {
+            processRecyclerScroll((RecyclerView) container);
+        } else if (container instanceof ListView) {
+            processListViewScroll((ListView) container);
+        } else if (container instanceof ViewGroup) {
+            processOtherScroll((ViewGroup) container);
+        }
+
+        if (autoPlayEngine != null && container instanceof ViewGroup) {
+            autoPlayEngine.update((ViewGroup) container);
+        }
+
+        if (mutedAutoPlayEngine != null && container instanceof ViewGroup) {
+            mutedAutoPlayEngine.update((ViewGroup) container);
+        }
+    }
+
+    /**
+     * 计算 View 在屏幕上的可见比例
+     *
+     * @param view
+     * @param outRect 复用的 Rect
+     * @return 0到1，没有显示时为0
+     */
+    static float getVisibleRatio(View view, Rect outRect) {
+        int width = view.getWidth();
+        int height = view.getHeight();
+
+        if (width <= 0 || height <= 0 || !view.isShown() || !view.getGlobalVisibleRect(outRect)) {
+            return 0;
+        }
+
+        return (float) outRect.width() * outRect.height() / ((float) width * height);
+    }
+
     /**
      * 处理Video列表为ListView的滑动
      *
@@ -129,9 +247,6 @@ public final class ListVideoHelper {
         int last = listView.getLastVisiblePosition();
         int visibleCount = listView.getChildCount();
 
-        Timber.v("ListView 滑动了,子控件数：%s，顶部：%s：%s,底部：%s :%s （原：新）", visibleCount,
-                firstPos, first, lastPos, last);
-
         processScrollEvent(listView, first, last, visibleCount);
 
     }
@@ -150,8 +265,6 @@ public final class ListVideoHelper {
             int last = linearLayoutManager.findLastVisibleItemPosition();
 
             int visibleCount = listView.getChildCount();
-            Timber.v("RecyclerView 滑动了,子控件数：%s，顶部：%s：%s,底部：%s :%s （原：新）",
-                    visibleCount, firstPos, first, lastPos, last);
 
             processScrollEvent(listView, first, last, visibleCount);
         }
@@ -163,7 +276,7 @@ public final class ListVideoHelper {
      * @param listView
      */
     protected static void processOtherScroll(ViewGroup listView) {
-        Timber.v(" 其他容器控件中播放 Video 的处理，待扩展 ");
+        // 其他容器控件中播放 Video 的处理，待扩展
     }
 
     /**
@@ -181,25 +294,38 @@ public final class ListVideoHelper {
 
             if (first > firstPos || last > lastPos) {    //上滑，并且顶部上一个滑出屏幕，或者底部下一个滑入屏幕
 
+                //fling 停下来后一次可能滑过多个，按范围处理
                 if (first > firstPos) {     // 顶部上一个滑出屏幕
-                    processTopScrollOut(firstPos);
+                    if (isPlayingPositionIn(firstPos, first - 1)) {
+                        processTopScrollOut(playingPlayerInListPosition);
+                    }
                     updatePlayingPlayerInList(listView.getChildAt(0), first);
                 }
 
                 if (last > lastPos) {   // 底部下一个滑入屏幕
-                    processBottomScrollIn(listView.getChildAt(bottomChildPosition), last);
+                    if (isTinyWindowPositionIn(lastPos + 1, last)) {
+                        processBottomScrollIn(listView.getChildAt(tinyWindowPosition - first), tinyWindowPosition);
+                    }
                 }
 
+                preloadInScrollDirection(first, last, true);
+
             } else if (first < firstPos || last < lastPos) { //下滑，并且顶部上一个滑入屏幕，或者底部下一个滑出屏幕
 
                 if (first < firstPos) {      // 顶部上一个滑入屏幕
-                    processTopScrollIn(listView.getChildAt(0), first);
+                    if (isTinyWindowPositionIn(first, firstPos - 1)) {
+                        processTopScrollIn(listView.getChildAt(tinyWindowPosition - first), tinyWindowPosition);
+                    }
                 }
 
                 if (last < lastPos) {   // 底部下一个滑出屏幕
-                    processBottomScrollOut(lastPos);
+                    if (isPlayingPositionIn(last + 1, lastPos)) {
+                        processBottomScrollOut(playingPlayerInListPosition);
+                    }
                     updatePlayingPlayerInList(listView.getChildAt(bottomChildPosition), last);
                 }
+
+                preloadInScrollDirection(first, last, false);
             } else {
                 updatePlayingPlayerInList(listView.getChildAt(0), first);  // 顶部
 
@@ -213,6 +339,57 @@ public final class ListVideoHelper {
         lastPos = last;
     }
 
+    /**
+     * 正在播放的位置是否在范围内
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    private static boolean isPlayingPositionIn(int from, int to) {
+        return playingPlayerInList != null
+                && playingPlayerInListPosition >= from && playingPlayerInListPosition <= to;
+    }
+
+    /**
+     * 小窗对应的位置是否在范围内
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    private static boolean isTinyWindowPositionIn(int from, int to) {
+        return tinyWindowPosition >= 0 && tinyWindowPosition >= from && tinyWindowPosition <= to;
+    }
+
+    /**
+     * 预加载滑动方向上即将出现的视频，不在范围内的预加载会被取消
+     *
+     * @param first
+     * @param last
+     * @param scrollDown 是否向列表底部滑动
+     */
+    protected static void preloadInScrollDirection(int first, int last, boolean scrollDown) {
+        if (urlProvider == null || preloadCount <= 0 || context == null) {
+            return;
+        }
+
+        preloadUrls.clear();
+        for (int i = 1; i <= preloadCount; i++) {
+            int position = scrollDown ? last + i : first - i;
+            if (position < 0) {
+                break;
+            }
+
+            String url = urlProvider.getVideoUrl(position);
+            if (url != null) {
+                preloadUrls.add(url);
+            }
+        }
+
+        PlayerCore.instance(context).getMediaPreloader().preload(preloadUrls);
+    }
+
     /**
      * 更新list中正在播放的Player
      *
@@ -220,8 +397,6 @@ public final class ListVideoHelper {
      * @param postion
      */
     protected static void updatePlayingPlayerInList(View childAt, int postion) {
-        Timber.v("更新list中正在播放的Player");
-
         if (postion != playingPlayerInListPosition || playingPlayerInList == null) {
             VideoPlayer listPlayer = findVideoPlayer(childAt);
             if (listPlayer != null && listPlayer.isVideoInPlayState()) {
@@ -254,8 +429,6 @@ public final class ListVideoHelper {
      * @param childAt
      */
     private static void processBottomScrollIn(View childAt, int position) {
-        Timber.v("底部滑入,位置：%s", position);
-
         processScrollIn(childAt, position);
     }
 
@@ -265,7 +438,6 @@ public final class ListVideoHelper {
      * @param position
      */
     private static void processBottomScrollOut(int position) {
-        Timber.v("底部滑出,位置：%s", position);
         processScrollOut(position);
     }
 
@@ -276,8 +448,6 @@ public final class ListVideoHelper {
      * @param childAt
      */
     private static void processTopScrollIn(View childAt, int position) {
-        Timber.v("顶部滑入,位置：%s", position);
-
         processScrollIn(childAt, position);
 
     }
@@ -288,8 +458,6 @@ public final class ListVideoHelper {
      * @param position
      */
     private static void processTopScrollOut(int position) {
-        Timber.v("顶部滑出,位置：%s", position);
-
         processScrollOut(position);
     }
 
@@ -299,8 +467,6 @@ public final class ListVideoHelper {
      * @param position
      */
     private static void processScrollOut(int position) {
-        Timber.v("处理滑出");
-
         if (playingPlayerInList != null && position == playingPlayerInListPosition) {
             if (tinyWhenOutScreen) {
                 VideoPlayer tinyPlayer = reference.get();
@@ -314,7 +480,7 @@ public final class ListVideoHelper {
                 Timber.i("停止播放");
 
                 playingPlayerInList.stopAndReset();
-                PlayerCore.instance(context).release();
+                PlayerCore.instance(context).recyclePlayer();
 
                 tinyWindowPosition = -1;
             }
@@ -327,8 +493,6 @@ public final class ListVideoHelper {
      * @param childAt
      */
     private static void processScrollIn(View childAt, int position) {
-        Timber.v("处理滑入");
-
         if (tinyWindowPosition >= 0 && tinyWhenOutScreen) {
             VideoPlayer tinyPlayer = reference.get();
             if (tinyPlayer != null) {
@@ -361,11 +525,22 @@ public final class ListVideoHelper {
      * @return
      */
     protected static VideoPlayer findVideoPlayer(View childAt) {
-        if (childAt instanceof ViewGroup) {
-            ViewGroup viewGroup = (ViewGroup) childAt;
-            return (VideoPlayer) viewGroup.findViewWithTag(VideoPlayer.TAG);
-        } else if (childAt instanceof VideoPlayer) {
+        if (childAt instanceof VideoPlayer) {
             return (VideoPlayer) childAt;
+        } else if (childAt instanceof ViewGroup) {
+            //item view 复用时布局不变，第一次查找后缓存在 item view 上
+            Object cached = childAt.getTag(R.id.naivor_list_item_player);
+            if (cached instanceof VideoPlayer) {
+                return (VideoPlayer) cached;
+            } else if (cached == NO_PLAYER) {
+                return null;
+            }
+
+            ViewGroup viewGroup = (ViewGroup) childAt;
+            VideoPlayer videoPlayer = (VideoPlayer) viewGroup.findViewWithTag(VideoPlayer.TAG);
+            childAt.setTag(R.id.naivor_list_item_player, videoPlayer != null ? videoPlayer : NO_PLAYER);
+
+            return videoPlayer;
         }
 
         return null;
@@ -393,6 +568,29 @@ public final class ListVideoHelper {
      * 清理资源
      */
     public static void release() {
+        if (scrollFramePending) {
+            Choreographer.getInstance().removeFrameCallback(scrollFrameCallback);
+        }
+        scrollFramePending = false;
+        flinging = false;
+
+        View container = containerReference != null ? containerReference.get() : null;
+        if (container != null) {
+            ViewTreeObserver observer = container.getViewTreeObserver();
+            observer.removeOnScrollChangedListener(scrollChangedListener);
+            observer.removeOnGlobalLayoutListener(globalLayoutListener);
+
+            if (container instanceof RecyclerView) {
+                ((RecyclerView) container).removeOnScrollListener(recyclerScrollListener);
+            }
+        }
+
+        if (context != null && urlProvider != null) {
+            PlayerCore.instance(context).getMediaPreloader().cancelAll();
+        }
+        urlProvider = null;
+        preloadUrls.clear();
+
         if (reference != null) {
             reference.clear();
         }
@@ -418,6 +616,12 @@ public final class ListVideoHelper {
 
         tinyWhenOutScreen = false;
         playInList = false;
+        autoPlayEngine = null;
+
+        if (mutedAutoPlayEngine != null) {
+            mutedAutoPlayEngine.stopAll();
+        }
+        mutedAutoPlayEngine = null;
 
         playingUrl = null;
         playingName = null;
@@ -439,4 +643,46 @@ public final class ListVideoHelper {
     public static void setPlayInList(boolean playInList) {
         ListVideoHelper.playInList = playInList;
     }
+
+    public static void setAutoPlayEngine(AutoPlayEngine autoPlayEngine) {
+        ListVideoHelper.autoPlayEngine = autoPlayEngine;
+
+        if (autoPlayEngine != null) {
+            requestProcessScroll();
+        }
+    }
+
+    public static void setMutedAutoPlayEngine(MutedAutoPlayEngine mutedAutoPlayEngine) {
+        if (ListVideoHelper.mutedAutoPlayEngine != null && ListVideoHelper.mutedAutoPlayEngine != mutedAutoPlayEngine) {
+            ListVideoHelper.mutedAutoPlayEngine.stopAll();
+        }
+        ListVideoHelper.mutedAutoPlayEngine = mutedAutoPlayEngine;
+
+        if (mutedAutoPlayEngine != null) {
+            requestProcessScroll();
+        }
+    }
+
+    /**
+     * 暂停静音播放，退到后台时停止所有静音播放，回来后重新分配
+     *
+     * @param paused
+     */
+    public static void setMutedAutoPlayPaused(boolean paused) {
+        if (mutedAutoPlayEngine != null) {
+            mutedAutoPlayEngine.setPaused(paused);
+
+            if (!paused) {
+                requestProcessScroll();
+            }
+        }
+    }
+
+    public static void setUrlProvider(VideoUrlProvider urlProvider) {
+        ListVideoHelper.urlProvider = urlProvider;
+    }
+
+    public static void setPreloadCount(int preloadCount) {
+        ListVideoHelper.preloadCount = preloadCount;
+    }
 }
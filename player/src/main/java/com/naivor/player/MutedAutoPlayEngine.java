@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player;
+
+import android.graphics.Rect;
+import android.view.ViewGroup;
+
+import com.naivor.player.constant.VideoState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Getter;
+import lombok.NonNull;
+import timber.log.Timber;
+
+/**
+ * list 中多个视频同时静音自动播放
+ * <p>
+ * 每个停止滑动的帧按可见比例从大到小给最多 maxCount 个视频分配解码器，静音循环播放；
+ * 解码器由 DecoderBudget 限制，分配不到的继续显示封面；正在静音播放的低于 stopRatio 才收回解码器，
+ * 收回后分给其他达到 playRatio 的视频。有声播放的视频不参与
+ * <p>
+ * 只在主线程使用
+ * <p>
+ * Created by naivor on 17-9-2.
+ */
+
+public final class MutedAutoPlayEngine {
+
+    public static final int DEFAULT_MAX_COUNT = 2;
+
+    @Getter
+    private final int maxCount;
+    @Getter
+    private final float playRatio;
+    @Getter
+    private final float stopRatio;
+
+    //退到后台时暂停
+    @Getter
+    private boolean paused;
+
+    //正在静音播放的视频
+    private final List<VideoPlayer> mutedPlayers;
+
+    //按可见比例排序的候选，复用
+    private final VideoPlayer[] candidates;
+    private final float[] candidateRatios;
+
+    //计算可见区域时复用
+    private final Rect visibleRect = new Rect();
+
+    public MutedAutoPlayEngine() {
+        this(DEFAULT_MAX_COUNT, AutoPlayEngine.DEFAULT_PLAY_RATIO, AutoPlayEngine.DEFAULT_STOP_RATIO);
+    }
+
+    /**
+     * @param maxCount  最多同时静音播放几个，还受解码器数量限制
+     * @param playRatio 可见比例达到多少开始播放，0到1
+     * @param stopRatio 可见比例低于多少停止，不能大于 playRatio
+     */
+    public MutedAutoPlayEngine(int maxCount, float playRatio, float stopRatio) {
+        if (maxCount <= 0 || playRatio <= 0 || playRatio > 1 || stopRatio < 0 || stopRatio > playRatio) {
+            throw new IllegalArgumentException("Invalid params, count: " + maxCount
+                    + ", play: " + playRatio + ", stop: " + stopRatio);
+        }
+
+        this.maxCount = maxCount;
+        this.playRatio = playRatio;
+        this.stopRatio = stopRatio;
+
+        mutedPlayers = new ArrayList<>(maxCount);
+        candidates = new VideoPlayer[maxCount];
+        candidateRatios = new float[maxCount];
+    }
+
+    /**
+     * 根据可见比例分配解码器，list 停止滑动的帧调用
+     *
+     * @param listView
+     */
+    public void update(@NonNull ViewGroup listView) {
+        if (paused) {
+            return;
+        }
+
+        VideoPlayer active = ListVideoHelper.currentPlayingPlayer;
+        if (active != null && active.getVideoState() == VideoState.CURRENT_STATE_ORIGIN) {
+            active = null;
+        }
+
+        //先收回看不见的，包括滑出后被回收的 item
+        for (int i = mutedPlayers.size() - 1; i >= 0; i--) {
+            VideoPlayer player = mutedPlayers.get(i);
+            MutedPreview mutedPreview = player.getMutedPreview();
+
+            if (mutedPreview == null || !mutedPreview.isStarted()) {   //开始有声播放或者换了视频
+                mutedPlayers.remove(i);
+            } else if (player == active || ListVideoHelper.getVisibleRatio(player, visibleRect) < stopRatio) {
+                mutedPreview.stop();
+                mutedPlayers.remove(i);
+            }
+        }
+
+        int freeCount = maxCount - mutedPlayers.size();
+        if (freeCount <= 0) {
+            return;
+        }
+
+        int candidateCount = collectCandidates(listView, active, freeCount);
+
+        for (int i = 0; i < candidateCount; i++) {
+            VideoPlayer player = candidates[i];
+            candidates[i] = null;
+
+            if (player.startMutedPreview()) {
+                mutedPlayers.add(player);
+            } else {
+                Timber.d("没有可用的解码器，显示封面");
+
+                for (int j = i + 1; j < candidateCount; j++) {
+                    candidates[j] = null;
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * 暂停时停止所有静音播放，不再分配解码器
+     *
+     * @param paused
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+
+        if (paused) {
+            stopAll();
+        }
+    }
+
+    /**
+     * 停止所有静音播放
+     */
+    public void stopAll() {
+        for (VideoPlayer player : mutedPlayers) {
+            MutedPreview mutedPreview = player.getMutedPreview();
+            if (mutedPreview != null) {
+                mutedPreview.stop();
+            }
+        }
+        mutedPlayers.clear();
+    }
+
+    /**
+     * 按可见比例从大到小找出没有播放的候选
+     *
+     * @param listView
+     * @param active   正在有声播放的
+     * @param maxSize  最多几个
+     * @return 候选的数量
+     */
+    private int collectCandidates(ViewGroup listView, VideoPlayer active, int maxSize) {
+        int size = 0;
+
+        int childCount = listView.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            VideoPlayer player = ListVideoHelper.findVideoPlayer(listView.getChildAt(i));
+            if (player == null || player == active || mutedPlayers.contains(player)
+                    || player.getVideoState() != VideoState.CURRENT_STATE_ORIGIN) {
+                continue;
+            }
+
+            float ratio = ListVideoHelper.getVisibleRatio(player, visibleRect);
+            if (ratio < playRatio) {
+                continue;
+            }
+
+            //插入排序，候选很少
+            int index = size;
+            while (index > 0 && candidateRatios[index - 1] < ratio) {
+                if (index < maxSize) {
+                    candidates[index] = candidates[index - 1];
+                    candidateRatios[index] = candidateRatios[index - 1];
+                }
+                index--;
+            }
+
+            if (index < maxSize) {
+                candidates[index] = player;
+                candidateRatios[index] = ratio;
+
+                if (size < maxSize) {
+                    size++;
+                }
+            }
+        }
+
+        return size;
+    }
+}
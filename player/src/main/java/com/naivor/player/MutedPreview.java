@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player;
+
+import android.content.Context;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.view.Gravity;
+import android.view.TextureView;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.source.LoopingMediaSource;
+import com.google.android.exoplayer2.ui.AspectRatioFrameLayout;
+import com.naivor.player.core.DecoderBudget;
+import com.naivor.player.core.PlayerCore;
+import com.naivor.player.core.PlayerPool;
+import com.naivor.player.core.PosterCache;
+import com.naivor.player.surface.VideoPreview;
+import com.naivor.player.utils.SourceUtils;
+
+import lombok.NonNull;
+import timber.log.Timber;
+
+/**
+ * 静音预览，list 中多个视频同时静音循环播放时，每个 VideoPlayer 用自己的一个
+ * <p>
+ * 从播放器池租用单独的播放器，画面显示在自己的 TextureView 上，不影响 PlayerCore 中有声播放的播放器；
+ * 不选择音频轨道，按显示区域大小选择低清晰度；开始前要先在 DecoderBudget 登记，登记不上时继续显示封面
+ * <p>
+ * 只在主线程使用
+ * <p>
+ * Created by naivor on 17-9-2.
+ */
+
+public final class MutedPreview {
+
+    private final Context context;
+    private final AspectRatioFrameLayout contentFrame;
+    private final VideoPreview videoPreview;
+
+    private String url;
+    private PlayerPool.PooledPlayer pooledPlayer;
+    private TextureView textureView;
+    private boolean firstFrameRendered;
+
+    private final SimpleExoPlayer.VideoListener videoListener = new SimpleExoPlayer.VideoListener() {
+        @Override
+        public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees,
+                                       float pixelWidthHeightRatio) {
+            float aspectRatio = height == 0 ? 1 : (width * pixelWidthHeightRatio) / height;
+            contentFrame.setAspectRatio(aspectRatio);
+        }
+
+        @Override
+        public void onRenderedFirstFrame() {
+            firstFrameRendered = true;
+
+            //有画面了再隐藏封面，避免黑屏
+            if (videoPreview != null) {
+                videoPreview.hidePreview();
+            }
+        }
+    };
+
+    MutedPreview(@NonNull Context context, @NonNull AspectRatioFrameLayout contentFrame, VideoPreview videoPreview) {
+        this.context = context.getApplicationContext();
+        this.contentFrame = contentFrame;
+        this.videoPreview = videoPreview;
+    }
+
+    /**
+     * 开始静音播放
+     *
+     * @param url
+     * @return 没有可用的解码器时返回false
+     */
+    public boolean start(String url) {
+        if (isStarted()) {
+            return true;
+        }
+
+        if (TextUtils.isEmpty(url) || !DecoderBudget.instance(context).acquire(this)) {
+            return false;
+        }
+
+        Timber.d("开始静音播放：%s", url);
+
+        this.url = url;
+        pooledPlayer = PlayerCore.instance(context).getPlayerPool().obtain();
+        firstFrameRendered = false;
+
+        textureView = new TextureView(context);
+        contentFrame.addView(textureView, 0, new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT, Gravity.CENTER));
+
+        //不解码音频，清晰度不超过显示区域
+        pooledPlayer.getTrackSelector().setAudioDisabled(true);
+        if (contentFrame.getWidth() > 0 && contentFrame.getHeight() > 0) {
+            pooledPlayer.getTrackSelector().setViewportSize(contentFrame.getWidth(), contentFrame.getHeight(), false);
+        }
+
+        SimpleExoPlayer player = pooledPlayer.getPlayer();
+        player.setVolume(0f);
+        player.setVideoListener(videoListener);
+        player.setVideoTextureView(textureView);
+        player.prepare(new LoopingMediaSource(SourceUtils.buildMediaSource(context, Uri.parse(url), false)));
+        player.setPlayWhenReady(true);
+
+        return true;
+    }
+
+    /**
+     * 停止静音播放，截取最后的画面作为封面，归还播放器和解码器
+     */
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+
+        Timber.d("停止静音播放");
+
+        if (videoPreview != null) {
+            //没有封面时用截取的最后画面
+            if (firstFrameRendered) {
+                videoPreview.captureLastFrame(textureView);
+                videoPreview.setCachedPoster(PosterCache.instance(context).get(url));
+            }
+            videoPreview.showPreview(false);
+        }
+
+        PlayerCore.instance(context).getPlayerPool().recycle(pooledPlayer);
+        pooledPlayer = null;
+
+        contentFrame.removeView(textureView);
+        textureView = null;
+        url = null;
+
+        DecoderBudget.instance(context).release(this);
+    }
+
+    /**
+     * 是否正在静音播放
+     *
+     * @return
+     */
+    public boolean isStarted() {
+        return pooledPlayer != null;
+    }
+}
@@ -0,0 +1,636 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.net.Uri;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.Gravity;
+import android.view.Surface;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.FrameLayout;
+
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.source.LoopingMediaSource;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.naivor.player.constant.VideoState;
+import com.naivor.player.core.PlayerCore;
+import com.naivor.player.core.PlayerPool;
+import com.naivor.player.core.VideoUrlProvider;
+import com.naivor.player.surface.VideoTextureView;
+import com.naivor.player.utils.SourceUtils;
+
+import lombok.Getter;
+import lombok.NonNull;
+import timber.log.Timber;
+
+/**
+ * 竖屏翻页播放短视频的辅助类，RecyclerView 配合 PagerSnapHelper 使用
+ * <p>
+ * 固定三个播放器，分别对应上一个、当前、下一个视频，每个播放器有自己的 VideoTextureView；
+ * 相邻的视频提前准备好，暂停在第一帧，翻页时只是轮换播放器，新的当前视频从显示的那一帧直接开始播放，
+ * 不用重新准备；离开的视频留在相邻位置，翻回来时从离开的位置继续
+ * <p>
+ * 最多同时占用三个播放器和三份缓冲，不使用 PlayerCore 中有声播放的播放器，也不计入它的播放质量统计；
+ * item 中的 VideoPlayer 只用来显示画面和封面，只在出错时显示控制界面
+ * <p>
+ * 只在主线程使用
+ * <p>
+ * Created by naivor on 17-9-3.
+ */
+
+public final class PagerVideoHelper {
+
+    public static final int RING_SIZE = 3;  //上一个、当前、下一个
+
+    private final Context context;
+    private final RecyclerView recyclerView;
+    private final VideoUrlProvider urlProvider;
+    private final AudioManager audioManager;
+
+    private final RingSlot[] slots;
+    //翻页时空出来的，复用
+    private final RingSlot[] freeSlots;
+
+    @Getter
+    private int currentPosition = RecyclerView.NO_POSITION;
+    private boolean paused;
+
+    //停止滑动时确定当前页
+    private final RecyclerView.OnScrollListener scrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                int position = findCurrentPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    setCurrentPosition(position);
+                }
+            }
+        }
+    };
+
+    //item 显示出来时把画面放进去，回收时拿出来
+    private final RecyclerView.OnChildAttachStateChangeListener attachListener = new RecyclerView.OnChildAttachStateChangeListener() {
+        @Override
+        public void onChildViewAttachedToWindow(View view) {
+            RingSlot slot = findSlot(recyclerView.getChildAdapterPosition(view));
+            if (slot != null) {
+                slot.attach(ListVideoHelper.findVideoPlayer(view));
+            }
+        }
+
+        @Override
+        public void onChildViewDetachedFromWindow(View view) {
+            VideoPlayer videoPlayer = ListVideoHelper.findVideoPlayer(view);
+            for (RingSlot slot : slots) {
+                if (slot.videoPlayer != null && slot.videoPlayer == videoPlayer) {
+                    slot.detach();
+                }
+            }
+        }
+    };
+
+    private final AudioManager.OnAudioFocusChangeListener audioFocusChangeListener = new AudioManager.OnAudioFocusChangeListener() {
+        @Override
+        public void onAudioFocusChange(int focusChange) {
+            switch (focusChange) {
+                case AudioManager.AUDIOFOCUS_GAIN:  //获得音频焦点，继续播放
+                    if (!paused) {
+                        playCurrent();
+                    }
+                    break;
+                case AudioManager.AUDIOFOCUS_LOSS:  //失去音频焦点，暂停播放
+                case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+                case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
+                    RingSlot current = findSlot(currentPosition);
+                    if (current != null) {
+                        current.pause();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    };
+
+    public PagerVideoHelper(@NonNull RecyclerView recyclerView, @NonNull VideoUrlProvider urlProvider) {
+        this.context = recyclerView.getContext().getApplicationContext();
+        this.recyclerView = recyclerView;
+        this.urlProvider = urlProvider;
+
+        audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+
+        slots = new RingSlot[RING_SIZE];
+        freeSlots = new RingSlot[RING_SIZE];
+        for (int i = 0; i < RING_SIZE; i++) {
+            slots[i] = new RingSlot(context);
+        }
+
+        recyclerView.addOnScrollListener(scrollListener);
+        recyclerView.addOnChildAttachStateChangeListener(attachListener);
+
+        int position = findCurrentPosition();
+        setCurrentPosition(position == RecyclerView.NO_POSITION ? 0 : position);
+    }
+
+    /**
+     * 切换当前页，停止滑动时自动调用；数据变化后也可以调用，重新准备地址变了的视频
+     *
+     * @param position
+     */
+    public void setCurrentPosition(int position) {
+        if (position < 0) {
+            return;
+        }
+
+        Timber.d("翻页：%s -> %s", currentPosition, position);
+
+        currentPosition = position;
+
+        //留下还在范围内的，其余的空出来准备新的位置
+        int freeCount = 0;
+        for (RingSlot slot : slots) {
+            if (!slot.isFor(position - 1, position + 1, urlProvider)) {
+                slot.invalidate();
+                freeSlots[freeCount++] = slot;
+            }
+        }
+
+        for (int i = position - 1; i <= position + 1; i++) {
+            if (i < 0 || findSlot(i) != null) {
+                continue;
+            }
+
+            String url = urlProvider.getVideoUrl(i);
+            if (TextUtils.isEmpty(url) || freeCount <= 0) {
+                continue;
+            }
+
+            RingSlot slot = freeSlots[--freeCount];
+            slot.prepare(i, url);
+            slot.attach(findVideoPlayer(i));
+        }
+
+        //多出来的空闲，不再占用播放器
+        for (int i = 0; i < freeCount; i++) {
+            freeSlots[i].reset();
+        }
+        for (int i = 0; i < RING_SIZE; i++) {
+            freeSlots[i] = null;
+        }
+
+        for (RingSlot slot : slots) {
+            if (slot.position != position) {
+                slot.pause();
+            }
+        }
+
+        if (!paused) {
+            playCurrent();
+        }
+    }
+
+    /**
+     * 暂停当前视频，activity 的 onPause 中调用
+     */
+    public void pause() {
+        paused = true;
+
+        RingSlot current = findSlot(currentPosition);
+        if (current != null) {
+            current.pause();
+        }
+
+        if (audioManager != null) {
+            audioManager.abandonAudioFocus(audioFocusChangeListener);
+        }
+    }
+
+    /**
+     * 继续播放当前视频，activity 的 onResume 中调用
+     */
+    public void resume() {
+        paused = false;
+
+        playCurrent();
+    }
+
+    /**
+     * 释放资源，调用后不能再使用
+     */
+    public void release() {
+        recyclerView.removeOnScrollListener(scrollListener);
+        recyclerView.removeOnChildAttachStateChangeListener(attachListener);
+
+        for (RingSlot slot : slots) {
+            slot.release();
+        }
+
+        if (audioManager != null) {
+            audioManager.abandonAudioFocus(audioFocusChangeListener);
+        }
+    }
+
+    /**
+     * 播放当前视频，有声音
+     */
+    private void playCurrent() {
+        RingSlot current = findSlot(currentPosition);
+        if (current == null) {
+            return;
+        }
+
+        if (audioManager != null) {
+            audioManager.requestAudioFocus(audioFocusChangeListener, AudioManager.STREAM_MUSIC,
+                    AudioManager.AUDIOFOCUS_GAIN);
+        }
+
+        current.play();
+    }
+
+    /**
+     * 当前页的位置，完整显示的第一个
+     *
+     * @return
+     */
+    private int findCurrentPosition() {
+        RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+        if (layoutManager instanceof LinearLayoutManager) {
+            LinearLayoutManager linearLayoutManager = (LinearLayoutManager) layoutManager;
+
+            int position = linearLayoutManager.findFirstCompletelyVisibleItemPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                position = linearLayoutManager.findFirstVisibleItemPosition();
+            }
+            return position;
+        }
+
+        return RecyclerView.NO_POSITION;
+    }
+
+    /**
+     * 某个位置已经显示的 item 中的 VideoPlayer
+     *
+     * @param position
+     * @return 没有显示时返回null
+     */
+    private VideoPlayer findVideoPlayer(int position) {
+        RecyclerView.ViewHolder holder = recyclerView.findViewHolderForAdapterPosition(position);
+        return holder != null ? ListVideoHelper.findVideoPlayer(holder.itemView) : null;
+    }
+
+    /**
+     * 某个位置的播放器
+     *
+     * @param position
+     * @return
+     */
+    private RingSlot findSlot(int position) {
+        if (position < 0) {
+            return null;
+        }
+
+        for (RingSlot slot : slots) {
+            if (slot.position == position) {
+                return slot;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 环中的一个位置，一个播放器加一个画面
+     */
+    private static final class RingSlot implements VideoTextureView.OnSurfaceChangedListener,
+            SimpleExoPlayer.VideoListener, ExoPlayer.EventListener {
+
+        private static final int MAX_RETRY_COUNT = 2;  //出错后自动重试的次数
+
+        private final Context context;
+        private final VideoTextureView textureView;
+
+        private PlayerPool.PooledPlayer pooledPlayer;
+        private int position = RecyclerView.NO_POSITION;
+        private String url;
+
+        //画面所在的 item
+        private VideoPlayer videoPlayer;
+        private boolean firstFrameRendered;
+        private float aspectRatio;
+
+        //出错后已经重试的次数，重试完还出错时显示错误，翻到这一页时再试
+        private int retryCount;
+        private boolean failed;
+
+        RingSlot(Context context) {
+            this.context = context;
+
+            textureView = new VideoTextureView(context);
+            textureView.setOnSurfaceChangedListener(this);
+        }
+
+        /**
+         * 是否是范围内的位置，并且地址没有变化
+         *
+         * @param from
+         * @param to
+         * @param urlProvider
+         * @return
+         */
+        boolean isFor(int from, int to, VideoUrlProvider urlProvider) {
+            return pooledPlayer != null && position >= from && position <= to
+                    && TextUtils.equals(url, urlProvider.getVideoUrl(position));
+        }
+
+        /**
+         * 准备某个位置的视频，准备好后暂停在第一帧
+         *
+         * @param position
+         * @param url
+         */
+        void prepare(int position, String url) {
+            detach();
+
+            if (pooledPlayer == null) {
+                pooledPlayer = PlayerCore.instance(context).getPlayerPool().obtain();
+            }
+
+            this.position = position;
+            this.url = url;
+            firstFrameRendered = false;
+            aspectRatio = 0;
+            retryCount = 0;
+            failed = false;
+
+            SimpleExoPlayer player = pooledPlayer.getPlayer();
+            player.setVideoListener(this);
+            player.removeListener(this);
+            player.addListener(this);
+            player.setPlayWhenReady(false);
+
+            Surface surface = textureView.getSurface();
+            if (surface != null) {
+                player.setVideoSurface(surface);
+            }
+
+            prepareSource();
+        }
+
+        /**
+         * 准备播放源，不计入 PlayerCore 的播放质量统计
+         */
+        private void prepareSource() {
+            pooledPlayer.getPlayer().prepare(new LoopingMediaSource(
+                    SourceUtils.buildMediaSource(context, Uri.parse(url), false)));
+        }
+
+        /**
+         * 有声播放
+         */
+        void play() {
+            if (pooledPlayer != null) {
+                //之前失败了，翻到这一页时重新试
+                if (failed) {
+                    failed = false;
+                    retryCount = 0;
+                    showError(false);
+
+                    prepareSource();
+                }
+
+                SimpleExoPlayer player = pooledPlayer.getPlayer();
+                player.setVolume(1f);
+                player.setPlayWhenReady(true);
+            }
+        }
+
+        /**
+         * 暂停，停在当前画面
+         */
+        void pause() {
+            if (pooledPlayer != null) {
+                pooledPlayer.getPlayer().setPlayWhenReady(false);
+            }
+        }
+
+        /**
+         * 把画面放到 item 的 VideoPlayer 中
+         *
+         * @param target
+         */
+        void attach(VideoPlayer target) {
+            if (target == null || target == videoPlayer || pooledPlayer == null) {
+                return;
+            }
+
+            detach();
+
+            ViewParent parent = textureView.getParent();
+            if (parent != null) {
+                ((ViewGroup) parent).removeView(textureView);
+            }
+
+            videoPlayer = target;
+            videoPlayer.getContentFrame().addView(textureView, 0, new FrameLayout.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT, Gravity.CENTER));
+            videoPlayer.controlView.setVisibility(View.GONE);
+
+            if (aspectRatio > 0) {
+                videoPlayer.getContentFrame().setAspectRatio(aspectRatio);
+            }
+
+            //有画面了才隐藏封面，换了视频后还是上个视频的画面
+            if (firstFrameRendered && videoPlayer.videoPreview != null) {
+                videoPlayer.videoPreview.hidePreview();
+            }
+
+            if (failed) {
+                showError(true);
+            }
+        }
+
+        /**
+         * 在 item 中显示或者隐藏出错的界面
+         *
+         * @param show
+         */
+        private void showError(boolean show) {
+            if (videoPlayer == null) {
+                return;
+            }
+
+            if (show) {
+                videoPlayer.controlView.setVisibility(View.VISIBLE);
+                videoPlayer.controlView.updateVideoState(VideoState.CURRENT_STATE_ERROR);
+            } else {
+                videoPlayer.controlView.updateVideoState(VideoState.CURRENT_STATE_ORIGIN);
+                videoPlayer.controlView.setVisibility(View.GONE);
+            }
+        }
+
+        /**
+         * 从 item 中拿出画面，重新显示封面
+         */
+        void detach() {
+            if (videoPlayer == null) {
+                return;
+            }
+
+            videoPlayer.getContentFrame().removeView(textureView);
+            if (failed) {
+                videoPlayer.controlView.updateVideoState(VideoState.CURRENT_STATE_ORIGIN);
+            }
+            videoPlayer.controlView.setVisibility(View.VISIBLE);
+            if (videoPlayer.videoPreview != null) {
+                videoPlayer.videoPreview.showPreview(false);
+            }
+
+            videoPlayer = null;
+        }
+
+        /**
+         * 不再对应原来的位置，保留播放器准备新的视频
+         */
+        void invalidate() {
+            detach();
+
+            position = RecyclerView.NO_POSITION;
+            url = null;
+            failed = false;
+        }
+
+        /**
+         * 归还播放器，保留画面给下次使用
+         */
+        void reset() {
+            detach();
+
+            if (pooledPlayer != null) {
+                pooledPlayer.getPlayer().removeListener(this);
+                PlayerCore.instance(context).getPlayerPool().recycle(pooledPlayer);
+                pooledPlayer = null;
+            }
+
+            position = RecyclerView.NO_POSITION;
+            url = null;
+            firstFrameRendered = false;
+            failed = false;
+        }
+
+        /**
+         * 释放
+         */
+        void release() {
+            reset();
+
+            textureView.setOnSurfaceChangedListener(null);
+            textureView.release();
+        }
+
+        @Override
+        public void onSurfaceChanged(Surface surface) {
+            if (pooledPlayer == null) {
+                return;
+            }
+
+            if (surface != null) {
+                pooledPlayer.getPlayer().setVideoSurface(surface);
+            } else {
+                pooledPlayer.getPlayer().clearVideoSurface();
+            }
+        }
+
+        @Override
+        public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees,
+                                       float pixelWidthHeightRatio) {
+            aspectRatio = height == 0 ? 1 : (width * pixelWidthHeightRatio) / height;
+
+            if (videoPlayer != null) {
+                videoPlayer.getContentFrame().setAspectRatio(aspectRatio);
+            }
+        }
+
+        @Override
+        public void onRenderedFirstFrame() {
+            firstFrameRendered = true;
+
+            if (videoPlayer != null && videoPlayer.videoPreview != null) {
+                videoPlayer.videoPreview.hidePreview();
+            }
+        }
+
+        @Override
+        public void onPlayerError(ExoPlaybackException error) {
+            Timber.e(error, "翻页播放出错：%s", url);
+
+            if (pooledPlayer == null || TextUtils.isEmpty(url)) {
+                return;
+            }
+
+            if (retryCount < MAX_RETRY_COUNT) {
+                retryCount++;
+
+                //保留 playWhenReady，当前页重试后继续播放
+                prepareSource();
+            } else {
+                failed = true;
+                showError(true);
+            }
+        }
+
+        @Override
+        public void onTimelineChanged(Timeline timeline, Object manifest) {
+
+        }
+
+        @Override
+        public void onTracksChanged(TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {
+
+        }
+
+        @Override
+        public void onLoadingChanged(boolean isLoading) {
+
+        }
+
+        @Override
+        public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+
+        }
+
+        @Override
+        public void onPositionDiscontinuity() {
+
+        }
+
+        @Override
+        public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
+
+        }
+    }
+}
@@ -20,6 +20,7 @@ import android.view.View;
 
 import com.naivor.player.constant.ScreenState;
 import com.naivor.player.constant.VideoState;
+import com.naivor.player.core.PlaybackMetrics;
 
 /**
  * 播放事件，供用户使用
@@ -56,4 +57,11 @@ public interface PlayEventListener {
      * @param isShow
      */
     void onControllViewShown(boolean isShow);
+
+    /**
+     * 一次播放结束（播放完成、出错、切换视频或者释放），返回这次播放的质量统计
+     *
+     * @param snapshot
+     */
+    void onPlaybackSessionEnd(PlaybackMetrics.Snapshot snapshot);
 }
@@ -29,6 +29,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
 import android.view.Gravity;
 import android.view.TextureView;
 import android.view.View;
@@ -40,6 +41,7 @@ import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.Toast;
 
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.PlaybackParameters;
@@ -54,16 +56,25 @@ import com.naivor.player.constant.ScreenState;
 import com.naivor.player.constant.VideoState;
 import com.naivor.player.controll.VideoController;
 import com.naivor.player.core.OnListVideoPlayListener;
+import com.naivor.player.core.PlaybackMetrics;
 import com.naivor.player.core.PlayerCore;
+import com.naivor.player.core.PlaylistMediaSource;
+import com.naivor.player.core.PosterCache;
+import com.naivor.player.core.ProgressCheckpointer;
+import com.naivor.player.core.ThumbnailLoader;
+import com.naivor.player.core.VideoUrlProvider;
 import com.naivor.player.surface.ControlView;
 import com.naivor.player.surface.DialogHolder;
 import com.naivor.player.surface.OnControllViewListener;
 import com.naivor.player.surface.VideoPreview;
+import com.naivor.player.surface.VideoTextureView;
+import com.naivor.player.utils.PlaybackHistory;
 import com.naivor.player.utils.SourceUtils;
 import com.naivor.player.utils.Utils;
 import com.naivor.player.utils.VideoUtils;
 
 import java.lang.ref.WeakReference;
+import java.util.List;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -106,6 +117,8 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
     protected ControlView controlView;
     //视频预览
     protected VideoPreview videoPreview;
+    //list 中静音播放
+    protected MutedPreview mutedPreview;
 
     protected DialogHolder dialogHolder;
 
@@ -132,11 +145,32 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
     protected String videoName = null;
     protected int seekToInAdvance = 0;
 
+    //播放列表，url 是正在播放的那个
+    @Getter
+    protected PlaylistMediaSource playlist;
+
+    //定时保存播放进度
+    protected ProgressCheckpointer progressCheckpointer;
+
+    //这次播放是否已经显示了画面，没有时 TextureView 上还是上个视频的画面
+    protected boolean firstFrameRendered;
+
+    //拖动进度时的缩略图，WebVTT 地址
+    @Getter
+    protected String thumbnailUrl;
+
     //是否开启自动缓冲，即设置播放url的时候就开始缓冲（在list中不起作用）
     @Getter
     @Setter
     protected boolean autoPrepare = false;
 
+    //退到后台时是否继续播放声音，只播放声音时不下载和解码视频
+    @Getter
+    @Setter
+    protected boolean backgroundAudioEnabled = false;
+    //是否正在后台只播放声音
+    protected boolean playingAudioOnly;
+
     //视频拉伸模式
     @Getter
     protected
@@ -183,6 +217,47 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
     };
 
 
+    //一次播放结束，把统计结果转给用户
+    protected PlaybackMetrics.OnSessionEndListener onSessionEndListener = new PlaybackMetrics.OnSessionEndListener() {
+        @Override
+        public void onSessionEnd(PlaybackMetrics.Snapshot snapshot) {
+            Timber.d("播放统计：%s", snapshot);
+
+            if (playEventListener != null) {
+                playEventListener.onPlaybackSessionEnd(snapshot);
+            }
+        }
+    };
+
+    //截取到画面，保存为这个视频的封面
+    protected VideoPreview.OnPreviewCapturedListener onPreviewCapturedListener = new VideoPreview.OnPreviewCapturedListener() {
+        @Override
+        public void onPreviewCaptured(Bitmap bitmap) {
+            PosterCache.instance(context).put(url, bitmap);
+        }
+    };
+
+    //磁盘上的封面读取完成，还是同一个视频时显示
+    protected PosterCache.OnPosterLoadedListener onPosterLoadedListener = new PosterCache.OnPosterLoadedListener() {
+        @Override
+        public void onPosterLoaded(String posterUrl, Bitmap poster) {
+            if (videoPreview != null && posterUrl.equals(url)) {
+                videoPreview.setCachedPoster(poster);
+            }
+        }
+    };
+
+    //缩略图加载完成，还在拖动时刷新对话框
+    protected ThumbnailLoader.OnThumbnailLoadedListener onThumbnailLoadedListener = new ThumbnailLoader.OnThumbnailLoadedListener() {
+        @Override
+        public void onThumbnailLoaded() {
+            if (dialogHolder != null && dialogHolder.isProgressDialogShowing() && controlView.isScrubbing()) {
+                dialogHolder.setProgressThumbnail(getThumbnail(controlView.getScrubPosition()));
+            }
+        }
+    };
+
+
     public VideoPlayer(@NonNull Context context) {
         this(context, null);
     }
@@ -223,10 +298,14 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
             contentFrame.setResizeMode(resizeMode);
 
             dialogHolder = new DialogHolder(context, this);
+            progressCheckpointer = new ProgressCheckpointer(this);
 
             controlView.setOnControllViewListener(this);
 
             videoPreview = new VideoPreview((ImageView) findViewById(R.id.iv_artwork));
+            videoPreview.setOnPreviewCapturedListener(onPreviewCapturedListener);
+
+            mutedPreview = new MutedPreview(context, contentFrame, videoPreview);
 
             setTag(TAG);
         } else {
@@ -259,6 +338,37 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
 
     @Override
     public boolean setUp(@lombok.NonNull String playUrl, String name) {
+        return setUp(playUrl, name, null);
+    }
+
+    /**
+     * 设置播放列表，列表中的视频连续播放，切换时不重新准备
+     * <p>
+     * 用 next()、previous() 切换，播放中可以通过 getPlaylist() 添加、删除
+     *
+     * @param urls
+     * @param name
+     * @return
+     */
+    public boolean setUpPlaylist(@lombok.NonNull List<String> urls, String name) {
+        if (urls.isEmpty()) {
+            setVideoState(VideoState.CURRENT_STATE_ORIGIN);
+            Toast.makeText(context.getApplicationContext(), "视频地址无效", Toast.LENGTH_SHORT).show();
+            return false;
+        }
+
+        return setUp(urls.get(0), name, new PlaylistMediaSource(context, urls));
+    }
+
+    /**
+     * 设置播放url
+     *
+     * @param playUrl
+     * @param name
+     * @param playlist 不是播放列表时为null
+     * @return
+     */
+    protected boolean setUp(@lombok.NonNull String playUrl, String name, PlaylistMediaSource playlist) {
 
         setVideoState(VideoState.CURRENT_STATE_ORIGIN);
 
@@ -267,10 +377,21 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
             return false;
         }
 
-        if (!playUrl.equals(url)) {
+        if (!playUrl.equals(url) || playlist != this.playlist) {
+
+            stopMutedPreview();
 
             this.url = playUrl;
+            this.playlist = playlist;
             this.videoName = name;
+            this.thumbnailUrl = null;
+
+            //上个视频截取的第一帧不能再用，显示这个视频缓存的封面
+            if (videoPreview != null) {
+                videoPreview.clearCapturedPreview();
+                videoPreview.clearCachedPoster();
+                videoPreview.setCachedPoster(PosterCache.instance(context).load(url, onPosterLoadedListener));
+            }
 
             if (videoName != null) {
                 controlView.setVideoTitle(videoName);
@@ -291,6 +412,15 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
     }
 
 
+    /**
+     * 设置拖动进度时的缩略图，在 setUp 之后调用
+     *
+     * @param thumbnailUrl WebVTT 地址，内容是图片地址，可以是雪碧图（sprite.jpg#xywh=x,y,w,h）
+     */
+    public void setThumbnailUrl(String thumbnailUrl) {
+        this.thumbnailUrl = thumbnailUrl;
+    }
+
     @Override
     public void setUpFullscreen(String url, String videoName) {
         Timber.d("锁定全屏播放:%s,%s", url, videoName);
@@ -326,13 +456,25 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
     public void prepareSource() {
         Timber.d("准备播放源");
 
+        //播放列表从第一个开始
+        if (playlist != null) {
+            url = playlist.size() > 0 ? playlist.getUrl(0) : "";
+        }
+
         if (TextUtils.isEmpty(url)) {
             setVideoState(VideoState.CURRENT_STATE_ERROR);
             Toast.makeText(context.getApplicationContext(), "视频地址无效", Toast.LENGTH_SHORT).show();
             return;
         }
 
+        //有声播放，不再静音播放
+        stopMutedPreview();
+
         initTextureView();
+        firstFrameRendered = false;
+
+        //上一个视频的统计在这里结束，结果交给上一个播放器
+        PlayerCore.instance(context).getPlaybackMetrics().endSession();
 
         bindPlayer();
 
@@ -340,7 +482,17 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
 
         PlayerCore playerCore = PlayerCore.instance(context);
 
-        playerCore.setMediaSource(SourceUtils.buildMediaSource(context, Uri.parse(url)));
+        //开始播放，不再需要预加载
+        playerCore.getMediaPreloader().cancel(url);
+
+        if (playlist != null) {
+            playerCore.setMediaSource(playlist);
+        } else {
+            playerCore.setMediaSource(SourceUtils.buildMediaSource(context, Uri.parse(url)));
+        }
+
+        //准备之前确定播放位置，避免先从头缓冲再跳转
+        playerCore.setStartPosition(resolveStartPosition());
 
         setVideoState(VideoState.CURRENT_STATE_PREPARING);
 
@@ -348,6 +500,35 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
 
     }
 
+    /**
+     * 计算开始播放的位置
+     *
+     * @return 没有需要跳转的位置返回 C.TIME_UNSET
+     */
+    protected long resolveStartPosition() {
+        Timber.d("计算播放位置");
+
+        if (seekToInAdvance != 0) {   //是否有跳过的进度
+
+            Timber.d("跳过时长：%s", seekToInAdvance);
+
+            long position = seekToInAdvance;
+            seekToInAdvance = 0;
+            return position;
+        } else {
+            long position = VideoUtils.getSavedProgress(url);  //是否有保存的进度
+
+            if (position > 0) {
+
+                Timber.d("上次保存的进度：%s", position);
+
+                return position;
+            }
+        }
+
+        return C.TIME_UNSET;
+    }
+
     /**
      * 准备播放器，注册监听
      */
@@ -357,6 +538,7 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
         controlView.setPlayer(PlayerCore.instance(context).getPlayer());
 
         PlayerCore.registerListener(this, this);
+        PlayerCore.instance(context).getPlaybackMetrics().setOnSessionEndListener(onSessionEndListener);
 
         removeTextureView();
         addTextureView();
@@ -370,6 +552,8 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
 
         // 记录正在播放的播放器
         ListVideoHelper.currentPlayingPlayer = this;
+
+        updateViewportSize();
     }
 
     /**
@@ -402,7 +586,7 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
         PlayerCore instance = PlayerCore.instance(context);
 
         if (instance.getSurfaceView() == null) {
-            instance.setSurfaceView(new TextureView(context));
+            instance.setSurfaceView(new VideoTextureView(context));
         }
     }
 
@@ -442,6 +626,47 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
         controlView.start();
     }
 
+    /**
+     * list 中自动播放，不是wifi并且不允许数据流量看视频时不播放，也不弹提示
+     *
+     * @return 是否开始播放
+     */
+    boolean autoPlay() {
+        if (TextUtils.isEmpty(url) || dialogHolder == null
+                || (!VideoUtils.isWifi() && !dialogHolder.isPlayWithNotWifi())) {
+            return false;
+        }
+
+        start();
+        return true;
+    }
+
+    /**
+     * list 中静音播放，没有可用的解码器时不播放
+     *
+     * @return 是否开始播放
+     */
+    boolean startMutedPreview() {
+        if (mutedPreview == null || isVideoInPlayState() || !VideoUtils.isWifi()) {
+            return false;
+        }
+
+        return mutedPreview.start(url);
+    }
+
+    /**
+     * 停止静音播放
+     */
+    void stopMutedPreview() {
+        if (mutedPreview != null) {
+            mutedPreview.stop();
+        }
+    }
+
+    MutedPreview getMutedPreview() {
+        return mutedPreview;
+    }
+
     @Override
     public void pause() {
         if (isVideoInPlayState()) {
@@ -566,26 +791,32 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
 
         switch (state) {
             case VideoState.CURRENT_STATE_ORIGIN:
-
+                progressCheckpointer.stop();
                 break;
             case VideoState.CURRENT_STATE_PREPARING:
 
                 break;
             case VideoState.CURRENT_STATE_PLAYING:
                 VideoUtils.clearSavedAutoPause(url);
+                progressCheckpointer.start(url);
                 break;
             case VideoState.CURRENT_STATE_PAUSE:
-
+                progressCheckpointer.checkpoint();
+                progressCheckpointer.stop();
                 break;
             case VideoState.CURRENT_STATE_PLAYING_BUFFERING:
+                progressCheckpointer.checkpoint();
                 break;
             case VideoState.CURRENT_STATE_ERROR:
+                progressCheckpointer.checkpoint();
+                progressCheckpointer.stop();
                 unBindPlayer();
                 break;
             case VideoState.CURRENT_STATE_COMPLETE:
+                //停止和切换视频也会到这里，要保留进度，真正播放完成时在 onPlayerStateChanged 中清除
+                progressCheckpointer.stop();
                 backPress();
                 unBindPlayer();
-                VideoUtils.clearSavedProgress(url);
                 break;
             default:
                 break;
@@ -705,6 +936,8 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
 
         updateBottomProgress();
 
+        updateViewportSize();
+
         if (playEventListener != null) {
             playEventListener.onScreenState(state);
         }
@@ -713,37 +946,65 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
 
 
     /**
-     * 准备完成
+     * 根据屏幕状态计算显示区域的大小，限制播放的清晰度
+     * <p>
+     * 切换窗口时还没有重新布局，全屏和小窗使用目标大小
      */
-    @Override
-    public void onPrepared() {
-        Timber.d("准备播放成功，可以开始播放");
-
-        if (videoState != VideoState.CURRENT_STATE_PREPARING) {
+    protected void updateViewportSize() {
+        if (isInEditMode() || ListVideoHelper.currentPlayingPlayer != this) {
             return;
         }
-        Timber.d("计算播放位置");
 
-        PlayerCore playerCore = PlayerCore.instance(context);
+        int width;
+        int height;
+        boolean orientationMayChange = false;
 
-        if (seekToInAdvance != 0) {   //是否有跳过的进度
+        switch (screenState) {
+            case ScreenState.SCREEN_WINDOW_FULLSCREEN:
+            case ScreenState.SCREEN_WINDOW_FULLSCREEN_LOCK:
+                DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
+                width = displayMetrics.widthPixels;
+                height = displayMetrics.heightPixels;
+                orientationMayChange = true;   //全屏时会旋转屏幕
+                break;
+            case ScreenState.SCREEN_WINDOW_TINY:
+            case ScreenState.SCREEN_LAYOUT_LIST_TINY:
+                width = VideoUtils.dp2px(tinyWidth);
+                height = VideoUtils.dp2px(tinyHeight);
+                break;
+            default:
+                width = contentFrame.getWidth() > 0 ? contentFrame.getWidth() : getWidth();
+                height = contentFrame.getHeight() > 0 ? contentFrame.getHeight() : getHeight();
+                break;
+        }
 
-            Timber.d("跳过时长：%s", seekToInAdvance);
+        PlayerCore.instance(context).setViewportSize(width, height, orientationMayChange);
+    }
 
-            playerCore.getPlayer().seekTo(seekToInAdvance);
-            seekToInAdvance = 0;
-        } else {
-            long position = VideoUtils.getSavedProgress(url);  //是否有保存的进度
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
 
-            if (position != 0) {
+        updateViewportSize();
+    }
 
-                Timber.d("上次保存的进度：%s", position);
+    /**
+     * 准备完成
+     */
+    @Override
+    public void onPrepared() {
+        Timber.d("准备播放成功，可以开始播放");
 
-                playerCore.getPlayer().seekTo(position);
-            }
+        if (videoState != VideoState.CURRENT_STATE_PREPARING) {
+            return;
         }
 
         setVideoState(VideoState.CURRENT_STATE_PLAYING);
+
+        //提前加载缩略图描述，拖动时不用等
+        if (!TextUtils.isEmpty(thumbnailUrl)) {
+            ThumbnailLoader.instance(context).load(thumbnailUrl);
+        }
     }
 
 
@@ -776,11 +1037,10 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
 
 
         if (isVideoInPlayState()) {
+            progressCheckpointer.checkpoint();
             stop();
         }
 
-        VideoUtils.saveProgress(url, getCurrentDuration());
-
         return false;
     }
 
@@ -811,9 +1071,7 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
                         parent = (ViewGroup) viewParent;
                         indexInParent = parent.indexOfChild(this);
                         parentLayoutParams = getLayoutParams();
-                        parent.removeView(this);   //从当前父布局移除
-
-                        pause();
+                        parent.removeView(this);   //从当前父布局移除，画面保留，解码不中断
 
                         activity.setRequestedOrientation(fullscreenOrientation);
                         VideoUtils.showSupportActionBar(activity, false);
@@ -829,8 +1087,6 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
                             setScreenState(ScreenState.SCREEN_WINDOW_FULLSCREEN);
                         }
 
-                        resume();
-
                         bottomProgressBar.setVisibility(GONE);
                     }
                 }
@@ -894,9 +1150,7 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
                         parent = (ViewGroup) viewParent;
                         indexInParent = parent.indexOfChild(this);
                         parentLayoutParams = getLayoutParams();
-                        parent.removeView(this);   //从当前父布局移除
-
-                        pause();
+                        parent.removeView(this);   //从当前父布局移除，画面保留，解码不中断
 
                         int widthTinyWindow = VideoUtils.dp2px(tinyWidth);
                         int heightTinyWindow = VideoUtils.dp2px(tinyHeight);
@@ -914,8 +1168,6 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
                             setScreenState(ScreenState.SCREEN_WINDOW_TINY);
                         }
 
-                        resume();
-
                     } else if (isList) {
                         setVisibility(VISIBLE);
                     }
@@ -946,9 +1198,11 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
             ViewGroup currentVP = (ViewGroup) getParent();
 
             if (parent != null && currentVP != null && parent != currentVP) {
-                currentVP.removeView(this);   //从当前父布局移除
+                currentVP.removeView(this);   //从当前父布局移除，画面保留，解码不中断
 
-                pause();
+                if (!continuePlay) {
+                    pause();
+                }
 
                 parent.addView(this, indexInParent, parentLayoutParams);
 
@@ -961,10 +1215,6 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
                 setScreenState(originScreenState);
                 onTouchScreenEnd();
 
-                if (continuePlay) {
-                    resume();
-                }
-
                 bottomProgressBar.setVisibility(GONE);
 
                 parent = null;
@@ -987,8 +1237,11 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
     public void onTimelineChanged(Timeline timeline, Object o) {
         Timber.d("onTimelineChanged");
 
-        controlView.updateAll();
+        updatePlaylistUrl();
+
+        //先重建时间线索引，再更新进度
         controlView.updateTimeBarMode();
+        controlView.updateAll();
     }
 
     @Override
@@ -1007,9 +1260,43 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
     public void onPositionDiscontinuity() {
         Timber.d("onPositionDiscontinuity");
 
+        updatePlaylistUrl();
+
         controlView.updateAll();
     }
 
+    /**
+     * 播放列表切换到下一个视频后，更新当前的url，进度保存到新的视频
+     */
+    protected void updatePlaylistUrl() {
+        if (playlist == null) {
+            return;
+        }
+
+        SimpleExoPlayer player = PlayerCore.instance(context).getPlayer();
+        if (player == null) {
+            return;
+        }
+
+        String windowUrl = PlaylistMediaSource.getWindowUrl(player.getCurrentTimeline(),
+                player.getCurrentWindowIndex());
+        if (windowUrl == null || windowUrl.equals(url)) {
+            return;
+        }
+
+        Timber.d("播放列表切换：%s", windowUrl);
+
+        //位置已经是新视频的，不能再保存给上一个
+        progressCheckpointer.stop();
+
+        url = windowUrl;
+        VideoUtils.saveLastUrl(url);
+
+        if (videoState == VideoState.CURRENT_STATE_PLAYING) {
+            progressCheckpointer.start(url);
+        }
+    }
+
 
     @Override
     public void onPlayerStateChanged(boolean b, int i) {
@@ -1035,6 +1322,8 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
                 }
                 break;
             case ExoPlayer.STATE_ENDED:
+                //播放完成，下次从头播放
+                progressCheckpointer.complete(url);
                 setVideoState(VideoState.CURRENT_STATE_COMPLETE);
                 break;
             default:
@@ -1141,11 +1430,38 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
     public void changePlayingPosition(float offset, int seekStep) {
         Timber.d("changePlayingPosition:%s,%s", offset, seekStep);
 
-        long position = VideoUtils.caculatePlayPosition(offset, seekStep, getCurrentDuration(), getTotalDuration());
+        //拖动时从上次的目标位置继续算，只预览，松手时再跳转
+        long position = VideoUtils.caculatePlayPosition(offset, seekStep, controlView.getScrubPosition(), getTotalDuration());
 
-        seekTo(position);
+        controlView.scrubTo(position);
 
         dialogHolder.showProgressDialog(offset, position, getTotalDuration());
+        dialogHolder.setProgressThumbnail(getThumbnail(position));
+    }
+
+    @Override
+    public void onScrub(long positionMs) {
+        //有缩略图时拖动进度条也显示对话框
+        if (TextUtils.isEmpty(thumbnailUrl)) {
+            return;
+        }
+
+        dialogHolder.showProgressDialog(positionMs - getCurrentDuration(), positionMs, getTotalDuration());
+        dialogHolder.setProgressThumbnail(getThumbnail(positionMs));
+    }
+
+    /**
+     * 拖动位置的缩略图
+     *
+     * @param positionMs
+     * @return 没有或还没加载时返回null
+     */
+    protected Bitmap getThumbnail(long positionMs) {
+        if (TextUtils.isEmpty(thumbnailUrl)) {
+            return null;
+        }
+
+        return ThumbnailLoader.instance(context).getThumbnail(thumbnailUrl, positionMs, onThumbnailLoadedListener);
     }
 
 
@@ -1153,6 +1469,12 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
     public void onTouchScreenEnd() {
         Timber.d("onTouchScreenEnd %s", hashCode());
 
+        controlView.stopScrub(true);
+
+        if (!TextUtils.isEmpty(thumbnailUrl)) {
+            ThumbnailLoader.instance(context).removeListener(onThumbnailLoadedListener);
+        }
+
         dialogHolder.dismissAllDialog();
     }
 
@@ -1190,9 +1512,22 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
 
     @Override
     public void onRenderedFirstFrame() {
+        firstFrameRendered = true;
+
         View view = PlayerCore.instance(context).getSurfaceView();
-        if (view != null && view instanceof TextureView) {
-            videoPreview.updatePreview(((TextureView) view).getBitmap());
+        if (view != null && view instanceof TextureView && videoPreview != null && contentFrame != null) {
+            videoPreview.capturePreview((TextureView) view, contentFrame);
+        }
+    }
+
+    /**
+     * 截取最后的画面保存为封面，画面还在这个播放器中时才截取
+     */
+    protected void captureLastFrame() {
+        View view = PlayerCore.instance(context).getSurfaceView();
+        if (videoPreview != null && view instanceof TextureView && view.getParent() == contentFrame
+                && firstFrameRendered && isVideoInPlayState()) {
+            videoPreview.captureLastFrame((TextureView) view);
         }
     }
 
@@ -1208,6 +1543,14 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
 
         Timber.d("onResume，是否继续：%s", isAutoPause);
 
+        ListVideoHelper.setMutedAutoPlayPaused(false);
+
+        //回到前台，恢复视频
+        if (playingAudioOnly) {
+            playingAudioOnly = false;
+            PlayerCore.instance(context).setAudioOnly(false, false);
+        }
+
         if (isAutoPause) {
 
             resume();
@@ -1227,13 +1570,26 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
 
         Timber.d("onResume，是否保存：%s", playing);
 
-        if (playing) {
+        if (playing && backgroundAudioEnabled) {
+            //后台继续播放声音，不再下载和解码视频
+            playingAudioOnly = true;
+            PlayerCore.instance(context).setAudioOnly(true, SourceUtils.isAudioMuxed(Uri.parse(url)));
+
+            progressCheckpointer.checkpoint();
+        } else if (playing) {
+            captureLastFrame();
+
             VideoUtils.saveAutoPause(url);
             pause();
 
             VideoUtils.saveProgress(url, getCurrentDuration());
 
         }
+
+        //退到后台马上写入播放记录，进程可能被杀
+        PlaybackHistory.instance(context).flush();
+
+        ListVideoHelper.setMutedAutoPlayPaused(true);
     }
 
     @Override
@@ -1305,9 +1661,17 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
     void stopAndReset() {
         Timber.i("停止播放并且重置状态");
 
+        //画面马上要给别的视频用，不能再截取
+        if (videoPreview != null) {
+            videoPreview.cancelCapture();
+        }
+
         backOriginWindow(false);
 
         if (videoState != VideoState.CURRENT_STATE_ORIGIN) {
+            progressCheckpointer.checkpoint();
+            captureLastFrame();
+
             stop();
             setVideoState(VideoState.CURRENT_STATE_ORIGIN);
         }
@@ -1318,6 +1682,20 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
      */
     public void release() {
         Timber.i("释放资源");
+
+        if (progressCheckpointer != null) {
+            if (isVideoInPlayState()) {
+                progressCheckpointer.checkpoint();
+            }
+            progressCheckpointer.stop();
+        }
+        PlaybackHistory.instance(context).flush();
+
+        stopMutedPreview();
+        mutedPreview = null;
+
+        playingAudioOnly = false;
+
         if (mAudioManager != null) {
             mAudioManager.abandonAudioFocus(onAudioFocusChangeListener);
         }
@@ -1333,6 +1711,9 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
         onAudioFocusChangeListener = null;
         videoName = null;
         playEventListener = null;
+        if (videoPreview != null) {
+            videoPreview.clearCapturedPreview();
+        }
         videoPreview = null;
     }
 
@@ -1346,20 +1727,19 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
                                        String url, String name) {
         Timber.i("交换播放器，让画面在新的播放器继续播放");
 
-        oldPlayer.pause();
+        //同一个画面移动到新的播放器，解码不中断
         oldPlayer.unBindPlayer();
         oldPlayer.setVideoState(VideoState.CURRENT_STATE_ORIGIN);
 
         if (url != null) {
             newPlayer.setUpListTiny(url, name);
+            newPlayer.setThumbnailUrl(oldPlayer.getThumbnailUrl());
         }
         newPlayer.bindPlayer();
         newPlayer.setVideoState(videoState);
 
         if (videoState == VideoState.CURRENT_STATE_PAUSE) {
             newPlayer.pause();
-        } else {
-            newPlayer.resume();
         }
 
     }
@@ -1376,6 +1756,39 @@ public class VideoPlayer extends FrameLayout implements OnControllViewListener,
         ListVideoHelper.init(listView);
     }
 
+    /**
+     * list 中自动播放可见比例最大的视频，需要在 playVideoInList 之后调用，开启后滑出屏幕不再打开小窗
+     *
+     * @param playRatio 可见比例达到多少开始播放，0到1，低于一半时停止
+     */
+    public static void autoPlayVideoInList(float playRatio) {
+        ListVideoHelper.setTinyWhenOutScreen(false);
+        ListVideoHelper.setAutoPlayEngine(new AutoPlayEngine(playRatio, playRatio / 2));
+    }
+
+    /**
+     * list 中多个视频同时静音自动播放，需要在 playVideoInList 之后调用，只在wifi下播放
+     * <p>
+     * 同时播放的数量还受设备解码器数量限制，超出的显示封面；点击播放后有声播放
+     *
+     * @param maxCount  最多同时播放几个
+     * @param playRatio 可见比例达到多少开始播放，0到1，低于一半时停止
+     */
+    public static void mutedAutoPlayVideoInList(int maxCount, float playRatio) {
+        ListVideoHelper.setMutedAutoPlayEngine(new MutedAutoPlayEngine(maxCount, playRatio, playRatio / 2));
+    }
+
+    /**
+     * 预加载list中滑动方向上即将出现的视频，需要在 playVideoInList 之后调用
+     *
+     * @param urlProvider  提供list中某个位置的视频地址
+     * @param preloadCount 预加载的视频个数
+     */
+    public static void preloadVideoInList(VideoUrlProvider urlProvider, int preloadCount) {
+        ListVideoHelper.setUrlProvider(urlProvider);
+        ListVideoHelper.setPreloadCount(preloadCount);
+    }
+
     /**
      * 返回键按下
      *
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.core;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+
+import com.google.android.exoplayer2.mediacodec.MediaCodecInfo;
+import com.google.android.exoplayer2.mediacodec.MediaCodecUtil;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.naivor.player.utils.MemoryUtils;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import lombok.Getter;
+import lombok.NonNull;
+import timber.log.Timber;
+
+/**
+ * 解码器预算，限制同时工作的视频解码器数量
+ * <p>
+ * 硬件解码器的数量有限，超过后新的解码器创建失败或者退回软解，list 中多个视频同时静音播放时，
+ * 先在这里登记，登记不上的只显示封面；总数里给有声播放的播放器保留一个
+ * <p>
+ * 只在主线程使用
+ * <p>
+ * Created by naivor on 17-9-2.
+ */
+
+public final class DecoderBudget {
+
+    public static final int MAX_DECODERS = 4;  //支持再多也最多同时用4个，带宽和内存也有限
+    public static final int DEFAULT_DECODERS = 2;  //查询不到时的默认值
+    public static final int RESERVED_DECODERS = 1;  //给有声播放的播放器保留
+
+    //单利
+    private static DecoderBudget decoderBudget;
+
+    //设备支持同时工作的解码器数量
+    @Getter
+    private final int maxDecoders;
+
+    //占用解码器的对象
+    private final Set<Object> holders;
+
+    /**
+     * 单例
+     *
+     * @param context
+     * @return
+     */
+    public static DecoderBudget instance(@NonNull Context context) {
+        if (decoderBudget == null) {
+            synchronized (DecoderBudget.class) {
+                if (decoderBudget == null) {
+                    decoderBudget = new DecoderBudget(context);
+                }
+            }
+        }
+
+        return decoderBudget;
+    }
+
+    private DecoderBudget(@NonNull Context context) {
+        maxDecoders = detectMaxDecoders(context.getApplicationContext());
+        holders = new HashSet<>();
+
+        Timber.d("同时工作的解码器数量：%s", maxDecoders);
+    }
+
+    /**
+     * 占用一个解码器
+     *
+     * @param holder
+     * @return 没有剩余时返回false
+     */
+    public boolean acquire(@NonNull Object holder) {
+        if (holders.contains(holder)) {
+            return true;
+        }
+
+        if (getAvailableCount() <= 0) {
+            return false;
+        }
+
+        holders.add(holder);
+        return true;
+    }
+
+    /**
+     * 归还解码器
+     *
+     * @param holder
+     */
+    public void release(Object holder) {
+        if (holder != null) {
+            holders.remove(holder);
+        }
+    }
+
+    /**
+     * 静音播放还能用的解码器数量
+     *
+     * @return
+     */
+    public int getAvailableCount() {
+        return maxDecoders - RESERVED_DECODERS - holders.size();
+    }
+
+    /**
+     * 查询设备支持同时工作的解码器数量，低内存设备只给有声播放用
+     *
+     * @param context
+     * @return
+     */
+    private static int detectMaxDecoders(Context context) {
+        if (MemoryUtils.isLowRamDevice(context)) {
+            return RESERVED_DECODERS;
+        }
+
+        int count = DEFAULT_DECODERS;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            count = getMaxSupportedInstancesV23();
+        }
+
+        return Math.max(RESERVED_DECODERS, Math.min(count, MAX_DECODERS));
+    }
+
+    /**
+     * H.264 解码器支持的实例数量
+     *
+     * @return
+     */
+    @TargetApi(23)
+    private static int getMaxSupportedInstancesV23() {
+        try {
+            MediaCodecInfo decoderInfo = MediaCodecUtil.getDecoderInfo(MimeTypes.VIDEO_H264, false);
+            if (decoderInfo != null && decoderInfo.capabilities != null) {
+                return decoderInfo.capabilities.getMaxSupportedInstances();
+            }
+        } catch (MediaCodecUtil.DecoderQueryException e) {
+            Timber.w(e, "查询解码器失败");
+        }
+
+        return DEFAULT_DECODERS;
+    }
+}
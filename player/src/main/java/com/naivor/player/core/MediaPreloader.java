@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.core;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Process;
+import android.text.TextUtils;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.util.PriorityTaskManager;
+import com.google.android.exoplayer2.util.Util;
+import com.naivor.player.utils.CacheUtils;
+import com.naivor.player.utils.SourceUtils;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import lombok.NonNull;
+import timber.log.Timber;
+
+/**
+ * 预加载视频开头的数据到缓存，list 中滑到该视频时可以马上开始播放
+ * <p>
+ * 预加载的优先级低于正在播放的视频，播放器缓冲的时候预加载会暂停
+ * <p>
+ * Created by naivor on 17-8-16.
+ */
+
+public final class MediaPreloader {
+
+    public static final int PRIORITY_PRELOAD = -1000;  //低于播放的优先级（0）
+
+    public static final int DEFAULT_PRELOAD_BYTES = 512 * 1024;  //默认预加载512K
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private Context context;
+    private PriorityTaskManager priorityTaskManager;
+
+    private int preloadBytes = DEFAULT_PRELOAD_BYTES;
+
+    //预加载任务，按提交顺序
+    private final Map<String, Future<?>> tasks;
+    private final ExecutorService executor;
+
+    //只有一个预加载线程，复用读取的buffer
+    private final byte[] buffer;
+
+    private DataSource.Factory dataSourceFactory;
+
+    public MediaPreloader(@NonNull Context context, PriorityTaskManager priorityTaskManager) {
+        this.context = context.getApplicationContext();
+        this.priorityTaskManager = priorityTaskManager;
+
+        tasks = new LinkedHashMap<>();
+        buffer = new byte[BUFFER_SIZE];
+
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "NaivorPreloader");
+            }
+        });
+    }
+
+    /**
+     * 设置预加载的数据量
+     *
+     * @param preloadBytes
+     */
+    public void setPreloadBytes(int preloadBytes) {
+        this.preloadBytes = preloadBytes;
+    }
+
+    /**
+     * 预加载这些视频，不在其中的预加载任务会被取消
+     *
+     * @param urls
+     */
+    public synchronized void preload(@NonNull List<String> urls) {
+        Iterator<Map.Entry<String, Future<?>>> iterator = tasks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Future<?>> entry = iterator.next();
+            if (entry.getValue().isDone()) {
+                iterator.remove();
+            } else if (!urls.contains(entry.getKey())) {
+                Timber.d("取消预加载：%s", entry.getKey());
+
+                entry.getValue().cancel(true);
+                iterator.remove();
+            }
+        }
+
+        for (int i = 0; i < urls.size(); i++) {
+            String url = urls.get(i);
+            if (!TextUtils.isEmpty(url) && !tasks.containsKey(url) && canPreload(url)) {
+                tasks.put(url, executor.submit(new PreloadTask(url)));
+            }
+        }
+    }
+
+    /**
+     * 取消某个视频的预加载，开始播放该视频时调用
+     *
+     * @param url
+     */
+    public synchronized void cancel(String url) {
+        Future<?> future = tasks.remove(url);
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * 取消所有预加载
+     */
+    public synchronized void cancelAll() {
+        for (Future<?> future : tasks.values()) {
+            future.cancel(true);
+        }
+        tasks.clear();
+    }
+
+    /**
+     * 释放资源
+     */
+    public void release() {
+        cancelAll();
+        executor.shutdownNow();
+    }
+
+    /**
+     * 开启缓存时，只预加载网络上的渐进式视频（MP4等），按字节范围读取开头的数据
+     *
+     * @param url
+     * @return
+     */
+    protected boolean canPreload(String url) {
+        Uri uri = Uri.parse(url);
+        String scheme = uri.getScheme();
+
+        return CacheUtils.isCacheEnabled()
+                && ("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme))
+                && SourceUtils.getVideoType(uri) == C.TYPE_OTHER;
+    }
+
+    /**
+     * 预加载的数据工厂，和播放时使用同一个缓存
+     *
+     * @return
+     */
+    private DataSource.Factory getDataSourceFactory() {
+        if (dataSourceFactory == null) {
+            dataSourceFactory = SourceUtils.buildDataSourceFactory(context, false, true);
+        }
+        return dataSourceFactory;
+    }
+
+    /**
+     * 读取开头的数据，写入缓存
+     *
+     * @param url
+     */
+    private void preloadData(String url) throws IOException, InterruptedException {
+        DataSource dataSource = getDataSourceFactory().createDataSource();
+        DataSpec dataSpec = new DataSpec(Uri.parse(url), 0, preloadBytes, null);
+
+        if (priorityTaskManager != null) {
+            priorityTaskManager.add(PRIORITY_PRELOAD);
+        }
+
+        long loadedBytes = 0;
+        try {
+            dataSource.open(dataSpec);
+
+            while (loadedBytes < preloadBytes) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                //正在播放的视频在加载时，等待其完成
+                if (priorityTaskManager != null) {
+                    priorityTaskManager.proceed(PRIORITY_PRELOAD);
+                }
+
+                int read = dataSource.read(buffer, 0, (int) Math.min(buffer.length, preloadBytes - loadedBytes));
+                if (read == C.RESULT_END_OF_INPUT) {
+                    break;
+                }
+                loadedBytes += read;
+            }
+
+            Timber.d("预加载完成：%s，%s 字节", url, loadedBytes);
+        } finally {
+            Util.closeQuietly(dataSource);
+
+            if (priorityTaskManager != null) {
+                priorityTaskManager.remove(PRIORITY_PRELOAD);
+            }
+        }
+    }
+
+    /**
+     * 预加载任务
+     */
+    private final class PreloadTask implements Runnable {
+        private final String url;
+
+        PreloadTask(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+            try {
+                preloadData(url);
+            } catch (InterruptedException e) {
+                Timber.d("预加载被取消：%s", url);
+            } catch (IOException e) {
+                Timber.w(e, "预加载失败：%s", url);
+            }
+        }
+    }
+}
@@ -0,0 +1,570 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.core;
+
+import android.os.SystemClock;
+import android.view.Surface;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.decoder.DecoderCounters;
+import com.google.android.exoplayer2.source.AdaptiveMediaSourceEventListener;
+import com.google.android.exoplayer2.source.ExtractorMediaSource;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.video.VideoRendererEventListener;
+import com.naivor.player.core.decorate.VideoBandwidthMeter;
+import com.naivor.player.utils.EventLogger;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import lombok.Setter;
+
+/**
+ * 播放质量统计，一直开启
+ * <p>
+ * 统计每次播放的起播时间、卡顿次数和时长、丢帧、码率切换、加载的数据量，
+ * 事件回调里只修改计数，不创建对象，需要时通过 {@link #getSnapshot()} 获取统计结果
+ * <p>
+ * 加载的数据量只统计用它作为传输监听的播放源，同时转给共用的带宽估算；
+ * 静音预览等额外播放器的流量只计入带宽估算，不计入这里
+ * <p>
+ * Created by naivor on 17-8-25.
+ */
+
+public final class PlaybackMetrics implements ExoPlayer.EventListener, VideoRendererEventListener,
+        AdaptiveMediaSourceEventListener, ExtractorMediaSource.EventListener, TransferListener<Object> {
+
+    //时长分布的区间上限（毫秒），最后一个区间是大于等于10秒
+    public static final long[] DURATION_BUCKETS_MS = {500, 1000, 2000, 5000, 10000};
+
+    //跳转后这段时间内开始的缓冲算作跳转，不算卡顿
+    private static final long SEEK_BUFFERING_WINDOW_MS = 500;
+
+    private final VideoBandwidthMeter bandwidthMeter;
+
+    //调试日志，只在调试版本中设置
+    @Setter
+    private EventLogger eventLogger;
+
+    //播放结束的监听
+    @Setter
+    private OnSessionEndListener onSessionEndListener;
+
+    private boolean sessionActive;
+    private long sessionStartMs;
+
+    //加载线程中累加，和其他统计分开加锁
+    private final Object bytesLock = new Object();
+    private long bytesLoaded;
+
+    private long startupTimeMs = C.TIME_UNSET;
+    private long firstFrameTimeMs = C.TIME_UNSET;
+
+    private int playbackState = ExoPlayer.STATE_IDLE;
+    private boolean hasBeenReady;
+    private boolean seeking;
+    private long discontinuityTimeMs = C.TIME_UNSET;
+
+    private long playingSinceMs = C.TIME_UNSET;
+    private long playTimeMs;
+
+    private long rebufferSinceMs = C.TIME_UNSET;
+    private long rebufferStartMs = C.TIME_UNSET;   //本次卡顿开始的时间
+    private int rebufferCount;
+    private long rebufferTimeMs;
+
+    private int droppedFrames;
+    private int bitrateSwitches;
+    private int videoBitrate = Format.NO_VALUE;
+    private int videoHeight = Format.NO_VALUE;
+
+    private int loadErrors;
+    private int playbackErrors;
+
+    //起播时间和卡顿时长的分布，整个进程累计
+    private final int[] startupHistogram;
+    private final int[] rebufferHistogram;
+
+    public PlaybackMetrics(VideoBandwidthMeter bandwidthMeter) {
+        this.bandwidthMeter = bandwidthMeter;
+
+        startupHistogram = new int[DURATION_BUCKETS_MS.length + 1];
+        rebufferHistogram = new int[DURATION_BUCKETS_MS.length + 1];
+    }
+
+    /**
+     * 开始一次播放，上一次还没结束的先结束
+     */
+    public void startSession() {
+        endSession();
+
+        sessionActive = true;
+        sessionStartMs = SystemClock.elapsedRealtime();
+        synchronized (bytesLock) {
+            bytesLoaded = 0;
+        }
+
+        startupTimeMs = C.TIME_UNSET;
+        firstFrameTimeMs = C.TIME_UNSET;
+
+        playbackState = ExoPlayer.STATE_IDLE;
+        hasBeenReady = false;
+        seeking = false;
+        discontinuityTimeMs = C.TIME_UNSET;
+
+        playingSinceMs = C.TIME_UNSET;
+        playTimeMs = 0;
+
+        rebufferSinceMs = C.TIME_UNSET;
+        rebufferStartMs = C.TIME_UNSET;
+        rebufferCount = 0;
+        rebufferTimeMs = 0;
+
+        droppedFrames = 0;
+        bitrateSwitches = 0;
+        videoBitrate = Format.NO_VALUE;
+        videoHeight = Format.NO_VALUE;
+
+        loadErrors = 0;
+        playbackErrors = 0;
+    }
+
+    /**
+     * 结束当前播放，通知监听器
+     */
+    public void endSession() {
+        if (!sessionActive) {
+            return;
+        }
+
+        long nowMs = SystemClock.elapsedRealtime();
+        updateTimers(nowMs);
+        finishRebuffer(nowMs);
+        sessionActive = false;
+
+        if (onSessionEndListener != null) {
+            onSessionEndListener.onSessionEnd(getSnapshot());
+        }
+    }
+
+    /**
+     * 是否正在统计
+     *
+     * @return
+     */
+    public boolean isSessionActive() {
+        return sessionActive;
+    }
+
+    /**
+     * 当前统计结果
+     *
+     * @return
+     */
+    public Snapshot getSnapshot() {
+        long nowMs = SystemClock.elapsedRealtime();
+
+        long currentPlayTimeMs = playTimeMs;
+        long currentRebufferTimeMs = rebufferTimeMs;
+        if (sessionActive) {
+            if (playingSinceMs != C.TIME_UNSET) {
+                currentPlayTimeMs += nowMs - playingSinceMs;
+            }
+            if (rebufferSinceMs != C.TIME_UNSET) {
+                currentRebufferTimeMs += nowMs - rebufferSinceMs;
+            }
+        }
+
+        long currentBytesLoaded;
+        synchronized (bytesLock) {
+            currentBytesLoaded = bytesLoaded;
+        }
+
+        return new Snapshot(nowMs - sessionStartMs, startupTimeMs, firstFrameTimeMs, currentPlayTimeMs,
+                rebufferCount, currentRebufferTimeMs, droppedFrames, bitrateSwitches, videoBitrate,
+                currentBytesLoaded, loadErrors, playbackErrors,
+                Arrays.copyOf(startupHistogram, startupHistogram.length),
+                Arrays.copyOf(rebufferHistogram, rebufferHistogram.length));
+    }
+
+    /**
+     * 累计播放和卡顿的时长
+     *
+     * @param nowMs
+     */
+    private void updateTimers(long nowMs) {
+        if (playingSinceMs != C.TIME_UNSET) {
+            playTimeMs += nowMs - playingSinceMs;
+            playingSinceMs = C.TIME_UNSET;
+        }
+
+        if (rebufferSinceMs != C.TIME_UNSET) {
+            rebufferTimeMs += nowMs - rebufferSinceMs;
+            rebufferSinceMs = C.TIME_UNSET;
+        }
+    }
+
+    /**
+     * 卡顿结束，记录到时长分布
+     *
+     * @param nowMs
+     */
+    private void finishRebuffer(long nowMs) {
+        if (rebufferStartMs != C.TIME_UNSET) {
+            rebufferHistogram[getBucket(nowMs - rebufferStartMs)]++;
+            rebufferStartMs = C.TIME_UNSET;
+        }
+    }
+
+    /**
+     * 时长所在的区间
+     *
+     * @param durationMs
+     * @return
+     */
+    private static int getBucket(long durationMs) {
+        for (int i = 0; i < DURATION_BUCKETS_MS.length; i++) {
+            if (durationMs < DURATION_BUCKETS_MS[i]) {
+                return i;
+            }
+        }
+        return DURATION_BUCKETS_MS.length;
+    }
+
+    // ExoPlayer.EventListener
+
+    @Override
+    public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+        if (!sessionActive) {
+            return;
+        }
+
+        long nowMs = SystemClock.elapsedRealtime();
+        updateTimers(nowMs);
+
+        if (playbackState != ExoPlayer.STATE_BUFFERING) {
+            finishRebuffer(nowMs);
+        }
+
+        if (playbackState == ExoPlayer.STATE_READY) {
+            if (!hasBeenReady) {
+                hasBeenReady = true;
+                startupTimeMs = nowMs - sessionStartMs;
+                startupHistogram[getBucket(startupTimeMs)]++;
+            }
+            seeking = false;
+
+            if (playWhenReady) {
+                playingSinceMs = nowMs;
+            }
+        } else if (playbackState == ExoPlayer.STATE_BUFFERING) {
+            if (this.playbackState == ExoPlayer.STATE_READY && discontinuityTimeMs != C.TIME_UNSET
+                    && nowMs - discontinuityTimeMs <= SEEK_BUFFERING_WINDOW_MS) {
+                seeking = true;
+            }
+
+            //播放中缓冲才算卡顿，拖动进度后的缓冲不算
+            if (hasBeenReady && !seeking && playWhenReady) {
+                if (rebufferStartMs == C.TIME_UNSET) {
+                    rebufferCount++;
+                    rebufferStartMs = nowMs;
+                }
+                rebufferSinceMs = nowMs;
+            }
+        }
+
+        this.playbackState = playbackState;
+
+        if (playbackState == ExoPlayer.STATE_ENDED) {
+            endSession();
+        }
+    }
+
+    @Override
+    public void onPositionDiscontinuity() {
+        //跳转和切换到下一个视频都会回调，之后马上缓冲的才是跳转
+        discontinuityTimeMs = SystemClock.elapsedRealtime();
+
+        if (playbackState == ExoPlayer.STATE_BUFFERING) {
+            seeking = true;
+        }
+    }
+
+    @Override
+    public void onPlayerError(ExoPlaybackException error) {
+        playbackErrors++;
+
+        endSession();
+    }
+
+    @Override
+    public void onTimelineChanged(Timeline timeline, Object manifest) {
+
+    }
+
+    @Override
+    public void onTracksChanged(TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {
+
+    }
+
+    @Override
+    public void onLoadingChanged(boolean isLoading) {
+
+    }
+
+    @Override
+    public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
+
+    }
+
+    // VideoRendererEventListener
+
+    @Override
+    public void onVideoEnabled(DecoderCounters counters) {
+
+    }
+
+    @Override
+    public void onVideoDecoderInitialized(String decoderName, long initializedTimestampMs,
+                                          long initializationDurationMs) {
+
+    }
+
+    @Override
+    public void onVideoInputFormatChanged(Format format) {
+        if (format == null) {
+            return;
+        }
+
+        //清晰度变化算一次码率切换
+        if (videoBitrate != Format.NO_VALUE || videoHeight != Format.NO_VALUE) {
+            if (format.bitrate != videoBitrate || format.height != videoHeight) {
+                bitrateSwitches++;
+            }
+        }
+
+        videoBitrate = format.bitrate;
+        videoHeight = format.height;
+    }
+
+    @Override
+    public void onDroppedFrames(int count, long elapsedMs) {
+        droppedFrames += count;
+    }
+
+    @Override
+    public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees,
+                                   float pixelWidthHeightRatio) {
+
+    }
+
+    @Override
+    public void onRenderedFirstFrame(Surface surface) {
+        if (sessionActive && firstFrameTimeMs == C.TIME_UNSET) {
+            firstFrameTimeMs = SystemClock.elapsedRealtime() - sessionStartMs;
+        }
+    }
+
+    @Override
+    public void onVideoDisabled(DecoderCounters counters) {
+
+    }
+
+    // ExtractorMediaSource.EventListener
+
+    @Override
+    public void onLoadError(IOException error) {
+        loadErrors++;
+
+        if (eventLogger != null) {
+            eventLogger.onLoadError(error);
+        }
+    }
+
+    // AdaptiveMediaSourceEventListener
+
+    @Override
+    public void onLoadStarted(DataSpec dataSpec, int dataType, int trackType, Format trackFormat,
+                              int trackSelectionReason, Object trackSelectionData, long mediaStartTimeMs,
+                              long mediaEndTimeMs, long elapsedRealtimeMs) {
+        if (eventLogger != null) {
+            eventLogger.onLoadStarted(dataSpec, dataType, trackType, trackFormat, trackSelectionReason,
+                    trackSelectionData, mediaStartTimeMs, mediaEndTimeMs, elapsedRealtimeMs);
+        }
+    }
+
+    @Override
+    public void onLoadCompleted(DataSpec dataSpec, int dataType, int trackType, Format trackFormat,
+                                int trackSelectionReason, Object trackSelectionData, long mediaStartTimeMs,
+                                long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs, long bytesLoaded) {
+        if (eventLogger != null) {
+            eventLogger.onLoadCompleted(dataSpec, dataType, trackType, trackFormat, trackSelectionReason,
+                    trackSelectionData, mediaStartTimeMs, mediaEndTimeMs, elapsedRealtimeMs, loadDurationMs,
+                    bytesLoaded);
+        }
+    }
+
+    @Override
+    public void onLoadCanceled(DataSpec dataSpec, int dataType, int trackType, Format trackFormat,
+                               int trackSelectionReason, Object trackSelectionData, long mediaStartTimeMs,
+                               long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs, long bytesLoaded) {
+        if (eventLogger != null) {
+            eventLogger.onLoadCanceled(dataSpec, dataType, trackType, trackFormat, trackSelectionReason,
+                    trackSelectionData, mediaStartTimeMs, mediaEndTimeMs, elapsedRealtimeMs, loadDurationMs,
+                    bytesLoaded);
+        }
+    }
+
+    @Override
+    public void onLoadError(DataSpec dataSpec, int dataType, int trackType, Format trackFormat,
+                            int trackSelectionReason, Object trackSelectionData, long mediaStartTimeMs,
+                            long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs, long bytesLoaded,
+                            IOException error, boolean wasCanceled) {
+        loadErrors++;
+
+        if (eventLogger != null) {
+            eventLogger.onLoadError(dataSpec, dataType, trackType, trackFormat, trackSelectionReason,
+                    trackSelectionData, mediaStartTimeMs, mediaEndTimeMs, elapsedRealtimeMs, loadDurationMs,
+                    bytesLoaded, error, wasCanceled);
+        }
+    }
+
+    @Override
+    public void onUpstreamDiscarded(int trackType, long mediaStartTimeMs, long mediaEndTimeMs) {
+        if (eventLogger != null) {
+            eventLogger.onUpstreamDiscarded(trackType, mediaStartTimeMs, mediaEndTimeMs);
+        }
+    }
+
+    @Override
+    public void onDownstreamFormatChanged(int trackType, Format trackFormat, int trackSelectionReason,
+                                          Object trackSelectionData, long mediaTimeMs) {
+        if (eventLogger != null) {
+            eventLogger.onDownstreamFormatChanged(trackType, trackFormat, trackSelectionReason,
+                    trackSelectionData, mediaTimeMs);
+        }
+    }
+
+    // TransferListener，在加载线程中回调
+
+    @Override
+    public void onTransferStart(Object source, DataSpec dataSpec) {
+        if (bandwidthMeter != null) {
+            bandwidthMeter.onTransferStart(source, dataSpec);
+        }
+    }
+
+    @Override
+    public void onBytesTransferred(Object source, int bytesTransferred) {
+        if (bandwidthMeter != null) {
+            bandwidthMeter.onBytesTransferred(source, bytesTransferred);
+        }
+
+        synchronized (bytesLock) {
+            bytesLoaded += bytesTransferred;
+        }
+    }
+
+    @Override
+    public void onTransferEnd(Object source) {
+        if (bandwidthMeter != null) {
+            bandwidthMeter.onTransferEnd(source);
+        }
+    }
+
+    /**
+     * 一次播放的统计结果
+     */
+    public static final class Snapshot {
+
+        public final long sessionDurationMs;   //从准备到现在（或结束）的时长
+        public final long startupTimeMs;   //准备到可以播放的时长，没有起播为 C.TIME_UNSET
+        public final long firstFrameTimeMs;   //准备到显示第一帧的时长
+        public final long playTimeMs;   //实际播放的时长
+        public final int rebufferCount;   //卡顿次数
+        public final long rebufferTimeMs;   //卡顿总时长
+        public final int droppedFrames;   //丢帧数
+        public final int bitrateSwitches;   //码率切换次数
+        public final int videoBitrate;   //当前视频码率
+        public final long bytesLoaded;   //这次播放从网络加载的数据量
+        public final int loadErrors;   //加载出错次数
+        public final int playbackErrors;   //播放出错次数
+
+        //起播时间和卡顿时长的分布，区间见 DURATION_BUCKETS_MS
+        public final int[] startupHistogram;
+        public final int[] rebufferHistogram;
+
+        Snapshot(long sessionDurationMs, long startupTimeMs, long firstFrameTimeMs, long playTimeMs,
+                 int rebufferCount, long rebufferTimeMs, int droppedFrames, int bitrateSwitches,
+                 int videoBitrate, long bytesLoaded, int loadErrors, int playbackErrors,
+                 int[] startupHistogram, int[] rebufferHistogram) {
+            this.sessionDurationMs = sessionDurationMs;
+            this.startupTimeMs = startupTimeMs;
+            this.firstFrameTimeMs = firstFrameTimeMs;
+            this.playTimeMs = playTimeMs;
+            this.rebufferCount = rebufferCount;
+            this.rebufferTimeMs = rebufferTimeMs;
+            this.droppedFrames = droppedFrames;
+            this.bitrateSwitches = bitrateSwitches;
+            this.videoBitrate = videoBitrate;
+            this.bytesLoaded = bytesLoaded;
+            this.loadErrors = loadErrors;
+            this.playbackErrors = playbackErrors;
+            this.startupHistogram = startupHistogram;
+            this.rebufferHistogram = rebufferHistogram;
+        }
+
+        /**
+         * 卡顿时长占比
+         *
+         * @return
+         */
+        public float getRebufferRatio() {
+            long totalMs = playTimeMs + rebufferTimeMs;
+            return totalMs > 0 ? (float) rebufferTimeMs / totalMs : 0f;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "startup=%dms, firstFrame=%dms, play=%dms, rebuffer=%d/%dms(%.2f%%), "
+                            + "dropped=%d, switches=%d, bitrate=%d, bytes=%d, loadErrors=%d, errors=%d",
+                    startupTimeMs, firstFrameTimeMs, playTimeMs, rebufferCount, rebufferTimeMs,
+                    getRebufferRatio() * 100, droppedFrames, bitrateSwitches, videoBitrate, bytesLoaded,
+                    loadErrors, playbackErrors);
+        }
+    }
+
+    /**
+     * 一次播放结束
+     */
+    public interface OnSessionEndListener {
+
+        /**
+         * @param snapshot 这次播放的统计结果
+         */
+        void onSessionEnd(Snapshot snapshot);
+    }
+}
@@ -15,23 +15,36 @@
  */
 package com.naivor.player.core;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
+import android.view.Surface;
 import android.view.SurfaceView;
 import android.view.TextureView;
 import android.view.View;
 
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayer;
-import com.google.android.exoplayer2.ExoPlayerFactory;
 import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.RenderersFactory;
 import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.Timeline;
 import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.trackselection.TrackSelector;
+import com.naivor.player.core.decorate.BufferPolicy;
+import com.naivor.player.core.decorate.VideoBandwidthMeter;
 import com.naivor.player.core.decorate.VideoLoadControl;
 import com.naivor.player.core.decorate.VideoRenderersFactory;
 import com.naivor.player.core.decorate.VideoTrackSelector;
+import com.naivor.player.surface.PreviewBitmapPool;
+import com.naivor.player.surface.VideoTextureView;
 
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 
 import lombok.NonNull;
@@ -55,20 +68,40 @@ public final class PlayerCore {
     private RenderersFactory renderersFactory;  //渲染工厂
     private TrackSelector trackSelector; //轨道选择器
     private LoadControl loadControl;  //加载状态监听
+    private BufferPolicy bufferPolicy;  //缓冲策略，为null时使用固定水位
 
     //播放器
     private SimpleExoPlayer player;
+    //播放器池
+    private PlayerPool playerPool;
+    //当前从播放器池租用的播放器
+    private PlayerPool.PooledPlayer pooledPlayer;
+    //预加载
+    private MediaPreloader mediaPreloader;
+    //带宽估算，所有播放源共用，释放播放器后保留
+    private VideoBandwidthMeter bandwidthMeter;
+    //播放质量统计
+    private PlaybackMetrics playbackMetrics;
     //显示画面的View
     private View surfaceView;
 
     private MediaSource mediaSource;    //音频数据源
     private boolean haveResetPosition = true;   //是否重置播放位置
     private boolean haveResetState;   //是否重置状态
+    private long startPosition = C.TIME_UNSET;   //开始播放的位置，准备的时候就跳转过去
+
+    //显示区域的大小，用于限制选择的清晰度
+    private int viewportWidth = Integer.MAX_VALUE;
+    private int viewportHeight = Integer.MAX_VALUE;
+    private boolean viewportOrientationMayChange = true;
 
     //事件监听
     private ExoPlayer.EventListener eventListener;
     private SimpleExoPlayer.VideoListener videoListener;
 
+    //内部监听，把播放器的状态同步给各个组件
+    private final ComponentListener componentListener;
+
     //单利
     private static PlayerCore playerCore;
 
@@ -97,27 +130,49 @@ public final class PlayerCore {
     private PlayerCore(@NonNull Context context) {
         this.context = context.getApplicationContext();
 
+        bandwidthMeter = new VideoBandwidthMeter(this.context);
+
+        playbackMetrics = new PlaybackMetrics(bandwidthMeter);
+
+        componentListener = new ComponentListener();
+
+        //内存紧张时缩短缓冲，释放空闲的播放器
+        this.context.registerComponentCallbacks(new MemoryCallbacks());
+
+        playerPool = new PlayerPool(this.context, bandwidthMeter);
+
         createPlayer(this.context);
 
         listListeners = new HashSet<>();
     }
 
     /**
-     * 创建播放器
+     * 创建播放器，优先从播放器池中租用
      *
      * @param context
      */
     private void createPlayer(@NonNull Context context) {
-        videoRenderersFactory = new VideoRenderersFactory(context);
-        videoRenderersFactory.setRenderersFactory(renderersFactory);
+        if (playerPool == null) {
+            playerPool = new PlayerPool(context, getBandwidthMeter());
+        }
+        playerPool.setRenderersFactory(renderersFactory);
+
+        pooledPlayer = playerPool.obtain();
 
-        videoTrackSelector = new VideoTrackSelector();
+        videoRenderersFactory = pooledPlayer.getRenderersFactory();
+
+        videoTrackSelector = pooledPlayer.getTrackSelector();
         videoTrackSelector.setTrackSelector(trackSelector);
+        videoTrackSelector.setViewportSize(viewportWidth, viewportHeight, viewportOrientationMayChange);
 
-        videoLoadControll = new VideoLoadControl();
+        videoLoadControll = pooledPlayer.getLoadControl();
         videoLoadControll.setLoadControl(loadControl);
+        videoLoadControll.setBufferPolicy(bufferPolicy);
 
-        player = ExoPlayerFactory.newSimpleInstance(videoRenderersFactory, videoTrackSelector, videoLoadControll);
+        player = pooledPlayer.getPlayer();
+        player.addListener(componentListener);
+        player.addListener(playbackMetrics);
+        player.setVideoDebugListener(playbackMetrics);
     }
 
 
@@ -127,12 +182,14 @@ public final class PlayerCore {
     public void notifyPlayNewVideoInList(@NonNull OnListVideoPlayListener listListener) {
         Timber.i("添加list监听器，监听新视频播放");
 
-        for (OnListVideoPlayListener l : listListeners) {
+        Iterator<OnListVideoPlayListener> iterator = listListeners.iterator();
+        while (iterator.hasNext()) {
+            OnListVideoPlayListener l = iterator.next();
             if (l != null && l != listListener) {
                 l.onNewVideo();
-                listListeners.remove(l);
+                iterator.remove();
 
-                release();
+                recyclePlayer();
             }
         }
 
@@ -140,6 +197,65 @@ public final class PlayerCore {
 
     }
 
+    /**
+     * 播放器池，静音播放等需要额外播放器时从这里租用
+     *
+     * @return
+     */
+    public PlayerPool getPlayerPool() {
+        if (playerPool == null) {
+            playerPool = new PlayerPool(context, getBandwidthMeter());
+        }
+
+        return playerPool;
+    }
+
+    /**
+     * 把当前播放器归还到播放器池，下次准备视频时复用，不释放解码器之外的资源
+     */
+    public void recyclePlayer() {
+        Timber.i("归还播放器");
+
+        //播放器归还了，这次播放结束
+        playbackMetrics.endSession();
+
+        if (player != null) {
+            player.removeListener(componentListener);
+            player.removeListener(playbackMetrics);
+            player.setVideoDebugListener(null);
+
+            if (eventListener != null) {
+                player.removeListener(eventListener);
+            }
+
+            if (videoListener != null) {
+                player.clearVideoListener(videoListener);
+            }
+        }
+
+        if (pooledPlayer != null && playerPool != null) {
+            playerPool.recycle(pooledPlayer);
+        } else if (player != null) {
+            player.release();
+        }
+        pooledPlayer = null;
+        player = null;
+
+        videoRenderersFactory = null;
+        videoTrackSelector = null;
+        videoLoadControll = null;
+
+        eventListener = null;
+        videoListener = null;
+
+        mediaSource = null;
+        startPosition = C.TIME_UNSET;
+
+        if (listListeners != null) {
+            listListeners.clear();
+        }
+    }
+
     /**
      * 准备视频
      */
@@ -151,7 +267,9 @@ public final class PlayerCore {
         }
 
         if (surfaceView != null) {
-            if (surfaceView instanceof TextureView) {
+            if (surfaceView instanceof VideoTextureView) {  //直接使用保留的画面，切换窗口时不用重新设置
+                player.setVideoSurface(((VideoTextureView) surfaceView).getSurface());
+            } else if (surfaceView instanceof TextureView) {
                 player.setVideoTextureView((TextureView) surfaceView);
             } else if (surfaceView instanceof SurfaceView) {
                 player.setVideoSurfaceView((SurfaceView) surfaceView);
@@ -169,7 +287,17 @@ public final class PlayerCore {
         }
 
         if (mediaSource != null) {
+            playbackMetrics.startSession();
+
             player.prepare(mediaSource, haveResetPosition, haveResetState);
+
+            //播放源的时间线还没有准备好，跳转会被保留到准备完成，第一次加载数据就从这个位置开始
+            if (startPosition != C.TIME_UNSET) {
+                Timber.d("从 %s 开始播放", startPosition);
+
+                player.seekTo(startPosition);
+                startPosition = C.TIME_UNSET;
+            }
         } else {
             throw new NullPointerException("mediaSource can't  be  null,please give a mediaSource to play");
         }
@@ -238,6 +366,19 @@ public final class PlayerCore {
         this.loadControl = loadControl;
     }
 
+    /**
+     * 设置缓冲策略，比如根据网速调整的 AdaptiveBufferPolicy
+     *
+     * @param bufferPolicy 为null时使用固定水位
+     */
+    public void setBufferPolicy(BufferPolicy bufferPolicy) {
+        if (videoLoadControll != null) {
+            videoLoadControll.setBufferPolicy(bufferPolicy);
+        }
+
+        this.bufferPolicy = bufferPolicy;
+    }
+
     /**
      * 设置渲染工厂
      *
@@ -248,6 +389,10 @@ public final class PlayerCore {
             videoRenderersFactory.setRenderersFactory(renderersFactory);
         }
 
+        if (playerPool != null) {
+            playerPool.setRenderersFactory(renderersFactory);
+        }
+
         this.renderersFactory = renderersFactory;
     }
 
@@ -264,14 +409,60 @@ public final class PlayerCore {
         this.trackSelector = trackSelector;
     }
 
+    /**
+     * 设置显示区域的大小，切换小窗、全屏时调用，正在播放的视频会重新选择清晰度
+     *
+     * @param width
+     * @param height
+     * @param orientationMayChange
+     */
+    public void setViewportSize(int width, int height, boolean orientationMayChange) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        Timber.d("显示区域：%s x %s", width, height);
+
+        viewportWidth = width;
+        viewportHeight = height;
+        viewportOrientationMayChange = orientationMayChange;
+
+        if (videoTrackSelector != null) {
+            videoTrackSelector.setViewportSize(width, height, orientationMayChange);
+        }
+    }
+
+    /**
+     * 只播放声音，退到后台时不再下载和解码视频，声音混在视频中时选择码率最低的
+     *
+     * @param audioOnly
+     * @param audioMuxed 声音是否混在可切换的视频清晰度中，见 SourceUtils.isAudioMuxed
+     */
+    public void setAudioOnly(boolean audioOnly, boolean audioMuxed) {
+        if (videoTrackSelector != null) {
+            Timber.d("只播放声音：%s，声音混在视频中：%s", audioOnly, audioMuxed);
+
+            videoTrackSelector.setAudioOnly(audioOnly, audioMuxed);
+        }
+    }
+
     /**
      * 释放资源
      */
     public void release() {
-        if (player != null) {
-            player.release();
+        playbackMetrics.endSession();
+        playbackMetrics.setOnSessionEndListener(null);
+
+        //只归还自己的播放器，静音预览、翻页等租用的播放器还在使用，由它们自己归还
+        recyclePlayer();
+
+        if (playerPool != null) {
+            playerPool.releaseIdle();
+        }
+
+        if (mediaPreloader != null) {
+            mediaPreloader.cancelAll();
         }
-        player = null;
 
         videoRenderersFactory = null;
         videoTrackSelector = null;
@@ -280,12 +471,18 @@ public final class PlayerCore {
         renderersFactory = null;
         trackSelector = null;
         loadControl = null;
+        bufferPolicy = null;
 
         eventListener = null;
         videoListener = null;
 
+        if (surfaceView instanceof VideoTextureView) {
+            ((VideoTextureView) surfaceView).setOnSurfaceChangedListener(null);
+            ((VideoTextureView) surfaceView).release();
+        }
         surfaceView = null;
         mediaSource = null;
+        startPosition = C.TIME_UNSET;
 
         if (listListeners != null) {
             listListeners.clear();
@@ -352,12 +549,59 @@ public final class PlayerCore {
         this.player = player;
     }
 
+    /**
+     * 带宽估算
+     *
+     * @return
+     */
+    public VideoBandwidthMeter getBandwidthMeter() {
+        if (bandwidthMeter == null) {
+            bandwidthMeter = new VideoBandwidthMeter(context);
+        }
+        return bandwidthMeter;
+    }
+
+    /**
+     * 播放质量统计
+     *
+     * @return
+     */
+    public PlaybackMetrics getPlaybackMetrics() {
+        return playbackMetrics;
+    }
+
+    /**
+     * 预加载器，和播放器池共用优先级管理
+     *
+     * @return
+     */
+    public MediaPreloader getMediaPreloader() {
+        if (mediaPreloader == null) {
+            if (playerPool == null) {
+                playerPool = new PlayerPool(context, getBandwidthMeter());
+            }
+            mediaPreloader = new MediaPreloader(context, playerPool.getPriorityTaskManager());
+        }
+        return mediaPreloader;
+    }
+
     public View getSurfaceView() {
         return surfaceView;
     }
 
     public void setSurfaceView(@NonNull View surfaceView) {
         this.surfaceView = surfaceView;
+
+        if (surfaceView instanceof VideoTextureView) {
+            ((VideoTextureView) surfaceView).setOnSurfaceChangedListener(new VideoTextureView.OnSurfaceChangedListener() {
+                @Override
+                public void onSurfaceChanged(Surface surface) {
+                    if (player != null) {
+                        player.setVideoSurface(surface);
+                    }
+                }
+            });
+        }
     }
 
     public MediaSource getMediaSource() {
@@ -368,10 +612,27 @@ public final class PlayerCore {
         this.mediaSource = mediaSource;
     }
 
+    /**
+     * 设置开始播放的位置，下次准备视频时生效
+     *
+     * @param startPosition 毫秒，C.TIME_UNSET 表示从头开始
+     */
+    public void setStartPosition(long startPosition) {
+        this.startPosition = startPosition;
+    }
+
+    public long getStartPosition() {
+        return startPosition;
+    }
+
     public LoadControl getLoadControl() {
         return loadControl;
     }
 
+    public BufferPolicy getBufferPolicy() {
+        return bufferPolicy;
+    }
+
     public ExoPlayer.EventListener getEventListener() {
         return eventListener;
     }
@@ -380,5 +641,87 @@ public final class PlayerCore {
         return videoListener;
     }
 
+    /**
+     * 内部监听
+     */
+    private final class ComponentListener implements ExoPlayer.EventListener {
+
+        private final Timeline.Window window = new Timeline.Window();
+
+        @Override
+        public void onTimelineChanged(Timeline timeline, Object manifest) {
+            if (videoLoadControll == null || player == null) {
+                return;
+            }
+
+            //视频时长同步给缓冲策略
+            long durationUs = C.TIME_UNSET;
+            if (timeline != null && !timeline.isEmpty()) {
+                int windowIndex = player.getCurrentWindowIndex();
+                if (windowIndex < timeline.getWindowCount()) {
+                    durationUs = timeline.getWindow(windowIndex, window).getDurationUs();
+                }
+            }
+            videoLoadControll.setContentDuration(durationUs);
+        }
+
+        @Override
+        public void onTracksChanged(TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {
+
+        }
+
+        @Override
+        public void onLoadingChanged(boolean isLoading) {
+
+        }
+
+        @Override
+        public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+
+        }
+
+        @Override
+        public void onPlayerError(ExoPlaybackException error) {
+
+        }
+
+        @Override
+        public void onPositionDiscontinuity() {
+
+        }
+
+        @Override
+        public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
+
+        }
+    }
+
+    /**
+     * 内存警告
+     */
+    private final class MemoryCallbacks implements ComponentCallbacks2 {
+
+        @Override
+        public void onTrimMemory(int level) {
+            Timber.d("内存警告：%s", level);
 
+            if (playerPool != null) {
+                playerPool.onTrimMemory(level);
+            }
+
+            if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                PreviewBitmapPool.clear();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+    }
 }
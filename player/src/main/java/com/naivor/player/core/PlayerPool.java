@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.core;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+
+import com.google.android.exoplayer2.ExoPlayerFactory;
+import com.google.android.exoplayer2.RenderersFactory;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.util.PriorityTaskManager;
+import com.naivor.player.core.decorate.VideoLoadControl;
+import com.naivor.player.core.decorate.VideoRenderersFactory;
+import com.naivor.player.core.decorate.VideoTrackSelector;
+import com.naivor.player.utils.MemoryUtils;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+import lombok.Getter;
+import lombok.NonNull;
+import timber.log.Timber;
+
+/**
+ * 播放器池，切换视频时复用已经创建好的播放器，避免重复创建和销毁
+ * <p>
+ * 只省下创建 SimpleExoPlayer、渲染器和播放线程的开销：归还时 stop() 会禁用渲染器并释放解码器，
+ * 这个版本的 ExoPlayer 重新 prepare 也一样，所以每次换视频解码器还是要重新创建，
+ * 不能减少解码器初始化带来的首帧耗时。因此不预先创建播放器，只缓存归还的播放器
+ * <p>
+ * Created by naivor on 17-8-14.
+ */
+
+public final class PlayerPool {
+
+    public static final int DEFAULT_MAX_IDLE_SIZE = 2;  //默认最多缓存2个空闲的播放器
+
+    private Context context;
+
+    //空闲的播放器
+    private final LinkedList<PooledPlayer> idlePlayers;
+    //租出去的播放器
+    private final Set<PooledPlayer> leasedPlayers;
+
+    @Getter
+    private int maxIdleSize;
+
+    //自定义渲染工厂，只在创建播放器的时候有用
+    private RenderersFactory renderersFactory;
+
+    //播放器加载数据时登记优先级，预加载等低优先级任务会让路
+    @Getter
+    private final PriorityTaskManager priorityTaskManager;
+
+    //根据设备内存等级确定的缓冲大小比例
+    private final float bufferSizeScale;
+
+    //所有播放器共用的带宽估算
+    @Getter
+    private final BandwidthMeter bandwidthMeter;
+
+    public PlayerPool(@NonNull Context context) {
+        this(context, null);
+    }
+
+    public PlayerPool(@NonNull Context context, BandwidthMeter bandwidthMeter) {
+        this(context, bandwidthMeter, DEFAULT_MAX_IDLE_SIZE);
+    }
+
+    public PlayerPool(@NonNull Context context, BandwidthMeter bandwidthMeter, int maxIdleSize) {
+        this.context = context.getApplicationContext();
+        this.bandwidthMeter = bandwidthMeter;
+        this.maxIdleSize = maxIdleSize;
+        this.bufferSizeScale = MemoryUtils.getBufferSizeScale(this.context);
+
+        idlePlayers = new LinkedList<>();
+        leasedPlayers = new HashSet<>();
+
+        priorityTaskManager = new PriorityTaskManager();
+    }
+
+    /**
+     * 租用一个播放器，有空闲的就直接复用，没有就新建
+     *
+     * @return
+     */
+    public PooledPlayer obtain() {
+        PooledPlayer pooledPlayer = idlePlayers.poll();
+
+        if (pooledPlayer == null) {
+            Timber.d("播放器池没有空闲的播放器，新建一个");
+            pooledPlayer = createPlayer();
+        } else {
+            Timber.d("复用播放器池中空闲的播放器");
+        }
+
+        leasedPlayers.add(pooledPlayer);
+
+        return pooledPlayer;
+    }
+
+    /**
+     * 归还播放器，停止播放并清理状态后放回池中，池满则直接释放
+     *
+     * @param pooledPlayer
+     */
+    public void recycle(PooledPlayer pooledPlayer) {
+        if (pooledPlayer == null || !leasedPlayers.remove(pooledPlayer)) {
+            return;
+        }
+
+        SimpleExoPlayer player = pooledPlayer.getPlayer();
+        //会释放解码器，下次使用时重新创建
+        player.stop();
+        player.setPlayWhenReady(false);
+        player.clearVideoSurface();
+        player.setVolume(1f);
+        player.setVideoListener(null);
+
+        //静音播放时改过的轨道选择，下次租用时恢复默认
+        VideoTrackSelector trackSelector = pooledPlayer.getTrackSelector();
+        trackSelector.setAudioDisabled(false);
+        trackSelector.setAudioOnly(false, false);
+        trackSelector.clearViewportConstraints();
+
+        if (idlePlayers.size() < maxIdleSize) {
+            Timber.d("归还播放器到播放器池");
+            idlePlayers.add(pooledPlayer);
+        } else {
+            Timber.d("播放器池已满，释放归还的播放器");
+            player.release();
+        }
+    }
+
+    /**
+     * 设置空闲池的大小
+     *
+     * @param maxIdleSize
+     */
+    public void setMaxIdleSize(int maxIdleSize) {
+        this.maxIdleSize = Math.max(0, maxIdleSize);
+
+        while (idlePlayers.size() > this.maxIdleSize) {
+            idlePlayers.removeLast().getPlayer().release();
+        }
+    }
+
+    /**
+     * 设置渲染工厂，已经空闲的播放器不再使用
+     *
+     * @param renderersFactory
+     */
+    public void setRenderersFactory(RenderersFactory renderersFactory) {
+        if (this.renderersFactory != renderersFactory) {
+            this.renderersFactory = renderersFactory;
+
+            releaseIdle();
+        }
+    }
+
+    /**
+     * 收到内存警告，释放空闲的播放器，缩短正在使用的播放器的缓冲
+     *
+     * @param level ComponentCallbacks2 中的等级
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            Timber.d("内存紧张，释放空闲的播放器：%s", idlePlayers.size());
+            releaseIdle();
+        }
+
+        for (PooledPlayer pooledPlayer : leasedPlayers) {
+            pooledPlayer.getLoadControl().onTrimMemory(level);
+        }
+    }
+
+    /**
+     * 空闲播放器的数量
+     *
+     * @return
+     */
+    public int getIdleCount() {
+        return idlePlayers.size();
+    }
+
+    /**
+     * 租出去的播放器数量
+     *
+     * @return
+     */
+    public int getLeasedCount() {
+        return leasedPlayers.size();
+    }
+
+    /**
+     * 创建播放器
+     *
+     * @return
+     */
+    private PooledPlayer createPlayer() {
+        VideoRenderersFactory videoRenderersFactory = new VideoRenderersFactory(context);
+        videoRenderersFactory.setRenderersFactory(renderersFactory);
+
+        VideoTrackSelector videoTrackSelector = new VideoTrackSelector(bandwidthMeter);
+
+        VideoLoadControl videoLoadControl = new VideoLoadControl(priorityTaskManager, bufferSizeScale);
+
+        SimpleExoPlayer player = ExoPlayerFactory.newSimpleInstance(videoRenderersFactory,
+                videoTrackSelector, videoLoadControl);
+
+        return new PooledPlayer(player, videoRenderersFactory, videoTrackSelector, videoLoadControl);
+    }
+
+    /**
+     * 释放空闲的播放器，租出去的播放器由租用者归还，不在这里释放
+     */
+    public void releaseIdle() {
+        for (PooledPlayer pooledPlayer : idlePlayers) {
+            pooledPlayer.getPlayer().release();
+        }
+        idlePlayers.clear();
+    }
+
+    /**
+     * 池中的播放器，以及创建它用到的组件
+     */
+    public static final class PooledPlayer {
+        @Getter
+        private final SimpleExoPlayer player;
+        @Getter
+        private final VideoRenderersFactory renderersFactory;
+        @Getter
+        private final VideoTrackSelector trackSelector;
+        @Getter
+        private final VideoLoadControl loadControl;
+
+        PooledPlayer(SimpleExoPlayer player, VideoRenderersFactory renderersFactory,
+                     VideoTrackSelector trackSelector, VideoLoadControl loadControl) {
+            this.player = player;
+            this.renderersFactory = renderersFactory;
+            this.trackSelector = trackSelector;
+            this.loadControl = loadControl;
+        }
+    }
+}
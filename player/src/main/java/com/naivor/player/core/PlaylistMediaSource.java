@@ -0,0 +1,614 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.core;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Pair;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.source.MediaPeriod;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.naivor.player.utils.SourceUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.NonNull;
+import timber.log.Timber;
+
+/**
+ * 播放列表，把多个视频连接成一个播放源，播放中可以添加、删除
+ * <p>
+ * 所有视频在同一个播放器中连续播放，切换时不重新准备，没有黑屏和停顿；当前视频缓冲完以后，
+ * 播放器接着缓冲下一个，所以快播完时下一个已经缓冲好了
+ * <p>
+ * 每个视频的播放源在加入时创建，但只准备第一个和正在缓冲的视频的下一个，播放到哪里准备到哪里；
+ * 第一个准备好就通知播放器开始播放，准备好之前的视频不出现在时间线中，后面的视频准备失败时跳过
+ * <p>
+ * add、remove 等方法在主线程调用，播放器准备以后通过播放器的消息在播放线程中修改
+ * <p>
+ * Created by naivor on 17-9-4.
+ */
+
+public final class PlaylistMediaSource implements MediaSource, ExoPlayer.ExoPlayerComponent {
+
+    private static final int MSG_ADD = 0;
+    private static final int MSG_REMOVE = 1;
+
+    private final Context context;
+
+    //主线程中的地址列表
+    private final List<String> urls;
+
+    //播放线程中的列表，准备之前在主线程修改
+    private final List<Item> items;
+    //已经删除，但播放器还在使用的视频
+    private final List<Item> removedItems;
+    //每个 MediaPeriod 属于哪个视频
+    private final Map<MediaPeriod, Item> periodItems;
+
+    private ExoPlayer player;
+    private Listener listener;
+    private PlaylistTimeline timeline;
+
+    public PlaylistMediaSource(@NonNull Context context, @NonNull List<String> urls) {
+        this.context = context.getApplicationContext();
+
+        this.urls = new ArrayList<>(urls.size());
+        items = new ArrayList<>(urls.size());
+        removedItems = new ArrayList<>();
+        periodItems = new IdentityHashMap<>();
+
+        for (String url : urls) {
+            this.urls.add(url);
+            items.add(new Item(url, SourceUtils.buildMediaSource(this.context, Uri.parse(url))));
+        }
+    }
+
+    /**
+     * 添加到最后
+     *
+     * @param url
+     */
+    public void add(@NonNull String url) {
+        add(urls.size(), url);
+    }
+
+    /**
+     * 添加到某个位置
+     *
+     * @param index
+     * @param url
+     */
+    public void add(int index, @NonNull String url) {
+        if (index < 0 || index > urls.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + urls.size());
+        }
+
+        urls.add(index, url);
+
+        Item item = new Item(url, SourceUtils.buildMediaSource(context, Uri.parse(url)));
+        synchronized (this) {
+            if (player != null) {
+                player.sendMessages(new ExoPlayer.ExoPlayerMessage(this, MSG_ADD, new Edit(index, item)));
+            } else {
+                items.add(index, item);
+            }
+        }
+    }
+
+    /**
+     * 删除某个位置的视频，正在播放的被删除时播放下一个
+     *
+     * @param index
+     */
+    public void remove(int index) {
+        if (index < 0 || index >= urls.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + urls.size());
+        }
+
+        urls.remove(index);
+
+        synchronized (this) {
+            if (player != null) {
+                player.sendMessages(new ExoPlayer.ExoPlayerMessage(this, MSG_REMOVE, index));
+            } else {
+                items.remove(index);
+            }
+        }
+    }
+
+    /**
+     * 视频数量
+     *
+     * @return
+     */
+    public int size() {
+        return urls.size();
+    }
+
+    /**
+     * 某个位置的地址
+     *
+     * @param index
+     * @return
+     */
+    public String getUrl(int index) {
+        return urls.get(index);
+    }
+
+    /**
+     * 所有的地址
+     *
+     * @return
+     */
+    public List<String> getUrls() {
+        return Collections.unmodifiableList(urls);
+    }
+
+    /**
+     * 时间线中某个窗口对应的地址
+     *
+     * @param timeline    播放器当前的时间线
+     * @param windowIndex
+     * @return 不是播放列表的时间线时返回null
+     */
+    public static String getWindowUrl(Timeline timeline, int windowIndex) {
+        if (timeline instanceof PlaylistTimeline && windowIndex >= 0 && windowIndex < timeline.getWindowCount()) {
+            return ((PlaylistTimeline) timeline).getUrlForWindow(windowIndex);
+        }
+
+        return null;
+    }
+
+    @Override
+    public synchronized void prepareSource(ExoPlayer player, boolean isTopLevelSource, Listener listener) {
+        this.player = player;
+        this.listener = listener;
+
+        //先只准备第一个，播放到哪里再准备下一个
+        maybePrepareNext();
+
+        //列表为空时直接结束
+        publishTimeline();
+    }
+
+    @Override
+    public synchronized void maybeThrowSourceInfoRefreshError() throws IOException {
+        IOException lastError = null;
+
+        for (Item item : items) {
+            if (!item.prepared || item.failed) {
+                continue;
+            }
+
+            try {
+                item.source.maybeThrowSourceInfoRefreshError();
+            } catch (IOException e) {
+                if (item.timeline != null) {   //已经在时间线中的，交给播放器处理
+                    throw e;
+                }
+
+                //还没准备好的视频出错时跳过，不影响其他视频
+                Timber.e(e, "播放列表中的视频准备失败，跳过：%s", item.url);
+
+                item.failed = true;
+                item.source.releaseSource();
+                lastError = e;
+            }
+        }
+
+        if (lastError != null) {
+            //全部失败，没有可以播放的
+            if (!hasAliveItem()) {
+                throw lastError;
+            }
+
+            maybePrepareNext();
+            publishTimeline();
+        }
+    }
+
+    @Override
+    public synchronized MediaPeriod createPeriod(int index, Allocator allocator, long positionUs) {
+        int itemIndex = timeline.getItemIndexForPeriod(index);
+        Item item = timeline.items[itemIndex];
+
+        MediaPeriod mediaPeriod = item.source.createPeriod(index - timeline.getFirstPeriodIndex(itemIndex),
+                allocator, positionUs);
+
+        periodItems.put(mediaPeriod, item);
+        item.activePeriodCount++;
+
+        //开始缓冲这个视频了，准备下一个
+        maybePrepareNext();
+
+        return mediaPeriod;
+    }
+
+    @Override
+    public synchronized void releasePeriod(MediaPeriod mediaPeriod) {
+        Item item = periodItems.remove(mediaPeriod);
+        if (item == null) {
+            return;
+        }
+
+        item.source.releasePeriod(mediaPeriod);
+        item.activePeriodCount--;
+
+        //删除的视频不再使用了，释放
+        if (item.removed && item.activePeriodCount == 0) {
+            item.source.releaseSource();
+            removedItems.remove(item);
+        }
+    }
+
+    @Override
+    public synchronized void releaseSource() {
+        for (Item item : items) {
+            if (item.prepared && !item.failed) {
+                item.source.releaseSource();
+            }
+            item.prepared = false;
+            item.failed = false;
+            item.timeline = null;
+            item.activePeriodCount = 0;
+        }
+
+        for (Item item : removedItems) {
+            item.source.releaseSource();
+        }
+        removedItems.clear();
+        periodItems.clear();
+
+        player = null;
+        listener = null;
+        timeline = null;
+    }
+
+    @Override
+    public synchronized void handleMessage(int messageType, Object message) throws ExoPlaybackException {
+        if (player == null) {
+            return;
+        }
+
+        switch (messageType) {
+            case MSG_ADD:
+                Edit edit = (Edit) message;
+                items.add(Math.min(edit.index, items.size()), edit.item);
+
+                maybePrepareNext();
+                publishTimeline();
+                break;
+            case MSG_REMOVE:
+                int index = (Integer) message;
+                if (index >= items.size()) {
+                    return;
+                }
+
+                Item item = items.remove(index);
+                if (item.activePeriodCount > 0) {
+                    item.removed = true;
+                    removedItems.add(item);
+                } else if (item.prepared && !item.failed) {
+                    item.source.releaseSource();
+                }
+
+                maybePrepareNext();
+                publishTimeline();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 准备需要的视频：第一个、正在缓冲的视频的下一个，以及插入到已准备的视频前面的
+     */
+    private void maybePrepareNext() {
+        boolean readyAfter = false;
+
+        for (int i = items.size() - 1; i >= 0; i--) {
+            Item item = items.get(i);
+            if (item.failed) {
+                continue;
+            }
+
+            if (!item.prepared && (readyAfter || shouldPrepareAfter(i))) {
+                prepareItem(item);
+            }
+
+            if (item.timeline != null) {
+                readyAfter = true;
+            }
+        }
+    }
+
+    /**
+     * 前一个视频是否已经开始缓冲，没有前一个时也要准备
+     *
+     * @param index
+     * @return
+     */
+    private boolean shouldPrepareAfter(int index) {
+        for (int i = index - 1; i >= 0; i--) {
+            Item item = items.get(i);
+            if (!item.failed) {
+                return item.timeline != null && item.activePeriodCount > 0;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 是否还有没失败的视频
+     *
+     * @return
+     */
+    private boolean hasAliveItem() {
+        for (Item item : items) {
+            if (!item.failed) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * 某个位置以后还有没准备好的视频
+     *
+     * @param index
+     * @return
+     */
+    private boolean hasPendingItem(int index) {
+        for (int i = index + 1; i < items.size(); i++) {
+            Item item = items.get(i);
+            if (!item.failed && item.timeline == null) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * 准备一个视频的播放源
+     *
+     * @param item
+     */
+    private void prepareItem(final Item item) {
+        item.prepared = true;
+        item.source.prepareSource(player, false, new Listener() {
+            @Override
+            public void onSourceInfoRefreshed(Timeline timeline, Object manifest) {
+                synchronized (PlaylistMediaSource.this) {
+                    if (!item.prepared || item.failed || item.removed) {
+                        return;
+                    }
+
+                    item.timeline = timeline;
+
+                    maybePrepareNext();
+                    publishTimeline();
+                }
+            }
+        });
+    }
+
+    /**
+     * 通知播放器新的时间线，没有准备好的视频先跳过
+     */
+    private void publishTimeline() {
+        if (listener == null) {
+            return;
+        }
+
+        int count = 0;
+        int lastReadyIndex = -1;
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            if (!item.failed && item.timeline != null) {
+                count++;
+                lastReadyIndex = i;
+            }
+        }
+
+        boolean hasPending = hasPendingItem(lastReadyIndex);
+
+        //一个都没准备好时先不通知，空的时间线会让播放器结束
+        if (count == 0 && hasPending) {
+            return;
+        }
+
+        Item[] readyItems = new Item[count];
+        int index = 0;
+        for (Item item : items) {
+            if (!item.failed && item.timeline != null) {
+                readyItems[index++] = item;
+            }
+        }
+
+        timeline = new PlaylistTimeline(readyItems, hasPending);
+
+        Timber.d("播放列表变化，视频数：%s", count);
+
+        listener.onSourceInfoRefreshed(timeline, null);
+    }
+
+    /**
+     * 列表中的一个视频
+     */
+    private static final class Item {
+        private final String url;
+        private final MediaSource source;
+
+        private Timeline timeline;
+        private boolean prepared;
+        private boolean failed;
+        private boolean removed;
+        private int activePeriodCount;
+
+        Item(String url, MediaSource source) {
+            this.url = url;
+            this.source = source;
+        }
+    }
+
+    /**
+     * 添加的消息
+     */
+    private static final class Edit {
+        private final int index;
+        private final Item item;
+
+        Edit(int index, Item item) {
+            this.index = index;
+            this.item = item;
+        }
+    }
+
+    /**
+     * 连接起来的时间线，周期的 uid 用视频本身加上原来的 uid，列表变化后正在播放的周期还能找到
+     */
+    private static final class PlaylistTimeline extends Timeline {
+
+        private final Item[] items;
+        private final Timeline[] timelines;
+        private final String[] urls;
+        //每个视频第一个窗口和周期的位置，最后一个是总数
+        private final int[] windowOffsets;
+        private final int[] periodOffsets;
+        //后面还有没准备好的视频，最后一个窗口标记为动态，播放器播完时等待而不是结束
+        private final boolean hasPending;
+
+        PlaylistTimeline(Item[] items, boolean hasPending) {
+            this.items = items;
+            this.hasPending = hasPending;
+
+            timelines = new Timeline[items.length];
+            urls = new String[items.length];
+            windowOffsets = new int[items.length + 1];
+            periodOffsets = new int[items.length + 1];
+
+            for (int i = 0; i < items.length; i++) {
+                timelines[i] = items[i].timeline;
+                urls[i] = items[i].url;
+                windowOffsets[i + 1] = windowOffsets[i] + timelines[i].getWindowCount();
+                periodOffsets[i + 1] = periodOffsets[i] + timelines[i].getPeriodCount();
+            }
+        }
+
+        @Override
+        public int getWindowCount() {
+            return windowOffsets[items.length];
+        }
+
+        @Override
+        public Window getWindow(int windowIndex, Window window, boolean setIds, long defaultPositionProjectionUs) {
+            int itemIndex = findOffsetIndex(windowOffsets, windowIndex);
+
+            timelines[itemIndex].getWindow(windowIndex - windowOffsets[itemIndex], window, setIds,
+                    defaultPositionProjectionUs);
+            window.firstPeriodIndex += periodOffsets[itemIndex];
+            window.lastPeriodIndex += periodOffsets[itemIndex];
+            if (hasPending && windowIndex == getWindowCount() - 1) {
+                window.isDynamic = true;
+            }
+
+            return window;
+        }
+
+        @Override
+        public int getPeriodCount() {
+            return periodOffsets[items.length];
+        }
+
+        @Override
+        public Period getPeriod(int periodIndex, Period period, boolean setIds) {
+            int itemIndex = getItemIndexForPeriod(periodIndex);
+
+            timelines[itemIndex].getPeriod(periodIndex - periodOffsets[itemIndex], period, setIds);
+            period.windowIndex += windowOffsets[itemIndex];
+            if (setIds) {
+                period.uid = Pair.create(items[itemIndex], period.uid);
+            }
+
+            return period;
+        }
+
+        @Override
+        public int getIndexOfPeriod(Object uid) {
+            if (!(uid instanceof Pair)) {
+                return C.INDEX_UNSET;
+            }
+
+            Pair<?, ?> itemAndPeriodUid = (Pair<?, ?>) uid;
+            for (int i = 0; i < items.length; i++) {
+                if (items[i] == itemAndPeriodUid.first) {
+                    int periodIndex = timelines[i].getIndexOfPeriod(itemAndPeriodUid.second);
+                    return periodIndex == C.INDEX_UNSET ? C.INDEX_UNSET : periodOffsets[i] + periodIndex;
+                }
+            }
+
+            return C.INDEX_UNSET;
+        }
+
+        int getItemIndexForPeriod(int periodIndex) {
+            return findOffsetIndex(periodOffsets, periodIndex);
+        }
+
+        int getFirstPeriodIndex(int itemIndex) {
+            return periodOffsets[itemIndex];
+        }
+
+        String getUrlForWindow(int windowIndex) {
+            return urls[findOffsetIndex(windowOffsets, windowIndex)];
+        }
+
+        /**
+         * 找到包含这个位置的视频
+         *
+         * @param offsets
+         * @param index
+         * @return
+         */
+        private int findOffsetIndex(int[] offsets, int index) {
+            int low = 0;
+            int high = items.length - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (offsets[mid] <= index) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+    }
+}
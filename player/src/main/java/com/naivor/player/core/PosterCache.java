@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.core;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import com.naivor.player.utils.MemoryUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import lombok.NonNull;
+import timber.log.Timber;
+
+/**
+ * 视频封面缓存，按视频地址保存截取的第一帧和最后一帧
+ * <p>
+ * 内存中是按字节计算大小的 LruCache，磁盘上每个视频一个 JPEG 文件，超过数量时删除最久没用的，
+ * list 中重新绑定或者重启应用后不用等网络就能显示画面
+ * <p>
+ * 除了后台任务都在主线程调用
+ * <p>
+ * Created by naivor on 17-8-30.
+ */
+
+public final class PosterCache {
+
+    public static final String POSTER_DIR = "naivor_poster";
+    public static final int MAX_DISK_FILES = 200;  //磁盘最多保存的封面数量
+    public static final int JPEG_QUALITY = 80;
+
+    //单利
+    private static PosterCache posterCache;
+
+    private final File posterDir;
+    private final Handler handler;
+    private final ExecutorService executor;
+    private final LruCache<String, Bitmap> cache;
+
+    /**
+     * 单例
+     *
+     * @param context
+     * @return
+     */
+    public static PosterCache instance(@NonNull Context context) {
+        if (posterCache == null) {
+            synchronized (PosterCache.class) {
+                if (posterCache == null) {
+                    posterCache = new PosterCache(context);
+                }
+            }
+        }
+
+        return posterCache;
+    }
+
+    private PosterCache(@NonNull Context context) {
+        Context appContext = context.getApplicationContext();
+
+        posterDir = new File(appContext.getCacheDir(), POSTER_DIR);
+        handler = new Handler(Looper.getMainLooper());
+
+        //可用内存的1/64
+        int maxBytes = MemoryUtils.getMemoryClass(appContext) * 1024 * 1024 / 64;
+        cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "NaivorPoster");
+            }
+        });
+
+        appContext.registerComponentCallbacks(new MemoryCallbacks());
+    }
+
+    /**
+     * 内存中的封面
+     *
+     * @param url
+     * @return 没有时返回null
+     */
+    public Bitmap get(String url) {
+        if (TextUtils.isEmpty(url)) {
+            return null;
+        }
+        return cache.get(url);
+    }
+
+    /**
+     * 获取封面，内存中没有时从磁盘读取，读取完成后在主线程回调
+     *
+     * @param url
+     * @param listener
+     * @return 内存中有时直接返回，不回调
+     */
+    public Bitmap load(final String url, final OnPosterLoadedListener listener) {
+        if (TextUtils.isEmpty(url)) {
+            return null;
+        }
+
+        Bitmap bitmap = cache.get(url);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+                final Bitmap poster = readPoster(url);
+                if (poster == null) {
+                    return;
+                }
+
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        cache.put(url, poster);
+
+                        if (listener != null) {
+                            listener.onPosterLoaded(url, poster);
+                        }
+                    }
+                });
+            }
+        });
+
+        return null;
+    }
+
+    /**
+     * 保存封面，会复制一份，传入的 Bitmap 可以继续复用
+     *
+     * @param url
+     * @param bitmap
+     */
+    public void put(String url, Bitmap bitmap) {
+        if (TextUtils.isEmpty(url) || bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+
+        //预览大小的图，复制很快，RGB_565 节省一半内存
+        final Bitmap poster = bitmap.copy(Bitmap.Config.RGB_565, false);
+        if (poster == null) {
+            return;
+        }
+
+        cache.put(url, poster);
+
+        final String fileName = hashKey(url);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+                writePoster(fileName, poster);
+            }
+        });
+    }
+
+    /**
+     * 删除某个视频的封面
+     *
+     * @param url
+     */
+    public void remove(String url) {
+        if (TextUtils.isEmpty(url)) {
+            return;
+        }
+
+        cache.remove(url);
+
+        final String fileName = hashKey(url);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                File file = new File(posterDir, fileName);
+                if (file.exists() && !file.delete()) {
+                    Timber.w("删除封面失败：%s", file);
+                }
+            }
+        });
+    }
+
+    /**
+     * 读取磁盘上的封面，读取后更新修改时间，作为最近使用的时间
+     *
+     * @param url
+     * @return
+     */
+    private Bitmap readPoster(String url) {
+        File file = new File(posterDir, hashKey(url));
+        if (!file.exists()) {
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (bitmap != null) {
+            file.setLastModified(System.currentTimeMillis());
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * 写入磁盘，先写临时文件再重命名，避免读到写了一半的文件
+     *
+     * @param fileName
+     * @param bitmap
+     */
+    private void writePoster(String fileName, Bitmap bitmap) {
+        if (!posterDir.exists() && !posterDir.mkdirs()) {
+            Timber.w("创建封面目录失败：%s", posterDir);
+            return;
+        }
+
+        File file = new File(posterDir, fileName);
+        File tempFile = new File(posterDir, fileName + ".tmp");
+
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(tempFile);
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, outputStream);
+            outputStream.close();
+            outputStream = null;
+
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to rename " + tempFile);
+            }
+        } catch (IOException e) {
+            Timber.w(e, "保存封面失败：%s", file);
+            tempFile.delete();
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    // 忽略
+                }
+            }
+        }
+
+        trimDisk();
+    }
+
+    /**
+     * 超过数量时删除最久没用的封面
+     */
+    private void trimDisk() {
+        File[] files = posterDir.listFiles();
+        if (files == null || files.length <= MAX_DISK_FILES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                long modified1 = file1.lastModified();
+                long modified2 = file2.lastModified();
+                return modified1 < modified2 ? -1 : (modified1 == modified2 ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < files.length - MAX_DISK_FILES; i++) {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * 视频地址转成文件名
+     *
+     * @param url
+     * @return
+     */
+    private static String hashKey(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(url.getBytes("UTF-8"));
+
+            StringBuilder builder = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return String.valueOf(url.hashCode());
+        }
+    }
+
+    /**
+     * 内存不足时释放内存中的封面，磁盘上的保留
+     */
+    private final class MemoryCallbacks implements ComponentCallbacks2 {
+
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                cache.evictAll();
+            } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                cache.trimToSize(cache.maxSize() / 2);
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+    }
+
+    /**
+     * 封面读取完成的监听
+     */
+    public interface OnPosterLoadedListener {
+
+        void onPosterLoaded(String url, Bitmap poster);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.core;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import com.naivor.player.controll.PositionController;
+import com.naivor.player.utils.VideoUtils;
+
+import lombok.NonNull;
+import timber.log.Timber;
+
+/**
+ * 定时保存播放进度，崩溃或进程被杀后也能从接近的位置继续播放
+ * <p>
+ * 播放时每 CHECKPOINT_INTERVAL_MS 取一次位置，状态变化时也取一次，位置变化不大时不保存；
+ * 保存只修改内存中的播放记录，由 PlaybackHistory 合并后在后台线程写入
+ * <p>
+ * 停止播放或切换视频时保留保存的进度，只有真正播放完成时才清除
+ * <p>
+ * 只在主线程使用
+ * <p>
+ * Created by naivor on 17-8-31.
+ */
+
+public final class ProgressCheckpointer {
+
+    public static final int CHECKPOINT_INTERVAL_MS = 5000;  //播放时每5秒保存一次
+    public static final int MIN_CHANGE_MS = 1000;  //位置变化小于1秒不保存
+
+    private final PositionController positionController;
+    private final Store store;
+    private final Handler handler;
+
+    private String url;
+    private long savedPositionMs;
+    private boolean running;
+
+    //定时保存
+    private final Runnable checkpointAction = new Runnable() {
+        @Override
+        public void run() {
+            checkpoint();
+
+            if (running) {
+                handler.postDelayed(this, CHECKPOINT_INTERVAL_MS);
+            }
+        }
+    };
+
+    public ProgressCheckpointer(@NonNull PositionController positionController) {
+        this(positionController, new Store() {
+            @Override
+            public void saveProgress(String url, long positionMs) {
+                VideoUtils.saveProgress(url, positionMs);
+            }
+
+            @Override
+            public void clearProgress(String url) {
+                VideoUtils.clearSavedProgress(url);
+            }
+        });
+    }
+
+    ProgressCheckpointer(@NonNull PositionController positionController, @NonNull Store store) {
+        this.positionController = positionController;
+        this.store = store;
+
+        handler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * 开始定时保存，开始播放时调用
+     *
+     * @param url
+     */
+    public void start(String url) {
+        if (!TextUtils.equals(this.url, url)) {
+            this.url = url;
+            savedPositionMs = 0;
+        }
+
+        if (!running) {
+            running = true;
+            handler.postDelayed(checkpointAction, CHECKPOINT_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * 停止定时保存，同时忘掉地址，下次 start 之前的位置可能是别的视频的，不能保存
+     */
+    public void stop() {
+        running = false;
+        handler.removeCallbacks(checkpointAction);
+
+        url = null;
+        savedPositionMs = 0;
+    }
+
+    /**
+     * 播放完成，停止定时保存并清除保存的进度，下次从头播放
+     * <p>
+     * 只在播放器真正播放到结尾时调用，用户停止、切换视频时调用 stop，保留进度
+     *
+     * @param url
+     */
+    public void complete(String url) {
+        stop();
+
+        if (!TextUtils.isEmpty(url)) {
+            store.clearProgress(url);
+        }
+    }
+
+    /**
+     * 马上取一次位置，位置变化不大时不保存
+     */
+    public void checkpoint() {
+        if (TextUtils.isEmpty(url)) {
+            return;
+        }
+
+        long positionMs = positionController.getCurrentDuration();
+        if (positionMs <= 0 || Math.abs(positionMs - savedPositionMs) < MIN_CHANGE_MS) {
+            return;
+        }
+
+        Timber.v("保存进度：%s", positionMs);
+
+        savedPositionMs = positionMs;
+        store.saveProgress(url, positionMs);
+    }
+
+    /**
+     * 保存进度的地方，默认是 PlaybackHistory
+     */
+    interface Store {
+
+        void saveProgress(String url, long positionMs);
+
+        void clearProgress(String url);
+    }
+}
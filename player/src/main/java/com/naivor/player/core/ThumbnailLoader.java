@@ -0,0 +1,599 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.core;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.text.webvtt.WebvttParserUtil;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.util.UriUtil;
+import com.google.android.exoplayer2.util.Util;
+import com.naivor.player.utils.MemoryUtils;
+import com.naivor.player.utils.SourceUtils;
+import com.naivor.player.utils.VideoUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import lombok.NonNull;
+import timber.log.Timber;
+
+/**
+ * 拖动进度时的缩略图
+ * <p>
+ * 缩略图来自 WebVTT 描述的雪碧图（sprite.jpg#xywh=x,y,w,h）或单张图片，在后台线程下载和解码，
+ * 切好的小图放在按字节计算大小的 LruCache 中，获取某个位置的缩略图时预加载前后几张
+ * <p>
+ * 除了后台任务都在主线程调用
+ * <p>
+ * Created by naivor on 17-8-30.
+ */
+
+public final class ThumbnailLoader {
+
+    public static final int PREFETCH_CUES = 2;  //预加载前后各2张
+    public static final int THUMBNAIL_WIDTH_DP = 160;  //缩略图最大宽度
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_SOURCE_BYTES = 1024 * 1024;  //VTT 文件最大1M
+    private static final int MAX_IMAGE_BYTES = 4 * 1024 * 1024;  //图片文件最大4M
+    private static final int MAX_DECODE_PIXELS = 2048 * 2048;  //解码后最多的像素，RGB_565 下8M
+    private static final String XYWH = "#xywh=";
+
+    //单利
+    private static ThumbnailLoader thumbnailLoader;
+
+    private final Context context;
+    private final Handler handler;
+    private final ExecutorService executor;
+    private final LruCache<String, Bitmap> cache;
+    private final int maxWidthPx;
+
+    //只在后台线程使用
+    private final byte[] buffer;
+    private DataSource.Factory dataSourceFactory;
+
+    //当前视频的缩略图描述，按开始时间排序
+    private String sourceUrl;
+    private List<Cue> cues;
+    private Future<?> sourceTask;
+
+    //正在下载的图片
+    private final Set<String> loadingImages;
+
+    private OnThumbnailLoadedListener onThumbnailLoadedListener;
+
+    /**
+     * 单例
+     *
+     * @param context
+     * @return
+     */
+    public static ThumbnailLoader instance(@NonNull Context context) {
+        if (thumbnailLoader == null) {
+            synchronized (ThumbnailLoader.class) {
+                if (thumbnailLoader == null) {
+                    thumbnailLoader = new ThumbnailLoader(context);
+                }
+            }
+        }
+
+        return thumbnailLoader;
+    }
+
+    private ThumbnailLoader(@NonNull Context context) {
+        this.context = context.getApplicationContext();
+
+        handler = new Handler(Looper.getMainLooper());
+        buffer = new byte[BUFFER_SIZE];
+        loadingImages = new HashSet<>();
+        maxWidthPx = VideoUtils.dp2px(THUMBNAIL_WIDTH_DP);
+
+        //可用内存的1/32
+        int maxBytes = MemoryUtils.getMemoryClass(this.context) * 1024 * 1024 / 32;
+        cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "NaivorThumbnail");
+            }
+        });
+
+        this.context.registerComponentCallbacks(new MemoryCallbacks());
+    }
+
+    /**
+     * 提前加载缩略图描述，加载失败后再次调用会重新加载
+     *
+     * @param url WebVTT 地址
+     */
+    public void load(String url) {
+        if (TextUtils.isEmpty(url) || url.equals(sourceUrl)) {
+            return;
+        }
+
+        Timber.d("加载缩略图描述：%s", url);
+
+        if (sourceTask != null) {
+            sourceTask.cancel(true);
+        }
+
+        sourceUrl = url;
+        cues = null;
+        sourceTask = executor.submit(new SourceTask(url));
+    }
+
+    /**
+     * 某个位置的缩略图，没有缓存时开始加载，加载完成后回调监听
+     *
+     * @param url        WebVTT 地址
+     * @param positionMs
+     * @param listener
+     * @return 还没有加载时返回null
+     */
+    public Bitmap getThumbnail(String url, long positionMs, OnThumbnailLoadedListener listener) {
+        if (TextUtils.isEmpty(url)) {
+            return null;
+        }
+
+        onThumbnailLoadedListener = listener;
+
+        load(url);
+
+        List<Cue> cues = this.cues;
+        if (cues == null || cues.isEmpty()) {
+            return null;
+        }
+
+        int index = findCue(cues, positionMs);
+        Cue cue = cues.get(index);
+        Bitmap bitmap = cache.get(cue.key);
+        if (bitmap == null) {
+            loadImage(cue.imageUrl);
+        }
+
+        //预加载前后的缩略图
+        for (int i = Math.max(0, index - PREFETCH_CUES), end = Math.min(cues.size() - 1, index + PREFETCH_CUES);
+             i <= end; i++) {
+            Cue nearby = cues.get(i);
+            if (cache.get(nearby.key) == null) {
+                loadImage(nearby.imageUrl);
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * 不再需要回调，拖动结束时调用
+     *
+     * @param listener
+     */
+    public void removeListener(OnThumbnailLoadedListener listener) {
+        if (onThumbnailLoadedListener == listener) {
+            onThumbnailLoadedListener = null;
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        cache.evictAll();
+    }
+
+    /**
+     * 下载图片，一张雪碧图包含多个缩略图，同一张只下载一次
+     *
+     * @param imageUrl
+     */
+    private void loadImage(String imageUrl) {
+        if (loadingImages.add(imageUrl)) {
+            executor.submit(new ImageTask(imageUrl, cues));
+        }
+    }
+
+    /**
+     * 二分查找位置所在的缩略图
+     *
+     * @param cues
+     * @param positionMs
+     * @return
+     */
+    static int findCue(List<Cue> cues, long positionMs) {
+        int low = 0;
+        int high = cues.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (cues.get(mid).startMs <= positionMs) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 读取全部数据
+     *
+     * @param url
+     * @param maxBytes
+     * @return
+     */
+    private byte[] readData(String url, int maxBytes) throws IOException, InterruptedException {
+        if (dataSourceFactory == null) {
+            dataSourceFactory = SourceUtils.buildDataSourceFactory(context, false, true);
+        }
+
+        DataSource dataSource = dataSourceFactory.createDataSource();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            dataSource.open(new DataSpec(Uri.parse(url)));
+
+            int read;
+            while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                outputStream.write(buffer, 0, read);
+                if (outputStream.size() > maxBytes) {
+                    throw new IOException("Thumbnail data too large: " + url);
+                }
+            }
+        } finally {
+            Util.closeQuietly(dataSource);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * 解析 WebVTT，每个 cue 的内容是图片地址，可以带 #xywh=
+     *
+     * @param url
+     * @param text
+     * @return
+     */
+    static List<Cue> parseCues(String url, String text) {
+        List<Cue> cues = new ArrayList<>();
+
+        String[] lines = text.split("\r\n|\r|\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            if (!line.contains("-->")) {
+                continue;
+            }
+
+            String[] timing = line.trim().split("\\s+");
+            if (timing.length < 3 || i + 1 >= lines.length) {
+                continue;
+            }
+
+            String payload = lines[++i].trim();
+            if (payload.isEmpty()) {
+                continue;
+            }
+
+            try {
+                long startMs = C.usToMs(WebvttParserUtil.parseTimestampUs(timing[0]));
+
+                int x = 0, y = 0, width = 0, height = 0;
+                int xywhIndex = payload.indexOf(XYWH);
+                if (xywhIndex >= 0) {
+                    String[] xywh = payload.substring(xywhIndex + XYWH.length()).split(",");
+                    x = Integer.parseInt(xywh[0].trim());
+                    y = Integer.parseInt(xywh[1].trim());
+                    width = Integer.parseInt(xywh[2].trim());
+                    height = Integer.parseInt(xywh[3].trim());
+                    payload = payload.substring(0, xywhIndex);
+                }
+
+                cues.add(new Cue(startMs, UriUtil.resolve(url, payload), x, y, width, height));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                Timber.w("无效的缩略图描述：%s", payload);
+            }
+        }
+
+        Collections.sort(cues, new Comparator<Cue>() {
+            @Override
+            public int compare(Cue cue1, Cue cue2) {
+                return cue1.startMs < cue2.startMs ? -1 : (cue1.startMs == cue2.startMs ? 0 : 1);
+            }
+        });
+
+        return cues;
+    }
+
+    /**
+     * 解码图片并切出缩略图，使用 RGB_565 并缩小到需要的宽度
+     *
+     * @param imageUrl
+     * @param cues
+     * @return key 和缩略图交替排列
+     */
+    private List<Object> decodeThumbnails(String imageUrl, List<Cue> cues) throws IOException, InterruptedException {
+        byte[] data = readData(imageUrl, MAX_IMAGE_BYTES);
+
+        //先只读尺寸，按最小的缩略图宽度和像素上限确定缩小倍数
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Unable to decode thumbnail: " + imageUrl);
+        }
+
+        int minCueWidth = options.outWidth;
+        for (Cue cue : cues) {
+            if (cue.imageUrl.equals(imageUrl) && cue.width > 0) {
+                minCueWidth = Math.min(minCueWidth, cue.width);
+            }
+        }
+
+        int sampleSize = calculateSampleSize(options.outWidth, options.outHeight, minCueWidth, maxWidthPx);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap image = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (image == null) {
+            throw new IOException("Unable to decode thumbnail: " + imageUrl);
+        }
+
+        List<Object> thumbnails = new ArrayList<>();
+        for (int i = 0; i < cues.size(); i++) {
+            Cue cue = cues.get(i);
+            if (!cue.imageUrl.equals(imageUrl)) {
+                continue;
+            }
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            Bitmap thumbnail = image;
+            if (cue.width > 0 && cue.height > 0) {   //坐标按缩小倍数换算
+                int x = Math.min(cue.x / sampleSize, image.getWidth() - 1);
+                int y = Math.min(cue.y / sampleSize, image.getHeight() - 1);
+                int width = Math.max(1, cue.width / sampleSize);
+                int height = Math.max(1, cue.height / sampleSize);
+                thumbnail = Bitmap.createBitmap(image, x, y,
+                        Math.min(width, image.getWidth() - x), Math.min(height, image.getHeight() - y));
+            }
+
+            if (thumbnail.getWidth() > maxWidthPx) {
+                int height = thumbnail.getHeight() * maxWidthPx / thumbnail.getWidth();
+                thumbnail = Bitmap.createScaledBitmap(thumbnail, maxWidthPx, Math.max(1, height), true);
+            }
+
+            thumbnails.add(cue.key);
+            thumbnails.add(thumbnail);
+        }
+
+        return thumbnails;
+    }
+
+    /**
+     * 解码时的缩小倍数，2的幂
+     * <p>
+     * 缩小后最小的缩略图不窄于需要的宽度，像素太多时继续缩小，不超过 MAX_DECODE_PIXELS
+     *
+     * @param imageWidth
+     * @param imageHeight
+     * @param minCueWidth 最窄的缩略图宽度
+     * @param maxWidthPx  需要的缩略图宽度
+     * @return
+     */
+    static int calculateSampleSize(int imageWidth, int imageHeight, int minCueWidth, int maxWidthPx) {
+        int sampleSize = 1;
+        while (minCueWidth / (sampleSize * 2) >= maxWidthPx) {
+            sampleSize *= 2;
+        }
+
+        while ((long) (imageWidth / sampleSize) * (imageHeight / sampleSize) > MAX_DECODE_PIXELS) {
+            sampleSize *= 2;
+        }
+
+        return sampleSize;
+    }
+
+    /**
+     * 加载缩略图描述
+     */
+    private final class SourceTask implements Runnable {
+        private final String url;
+
+        SourceTask(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+            try {
+                final List<Cue> result = parseCues(url,
+                        new String(readData(url, MAX_SOURCE_BYTES), Charset.forName(C.UTF8_NAME)));
+
+                Timber.d("缩略图描述加载完成：%s，%s 张", url, result.size());
+
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (url.equals(sourceUrl)) {
+                            cues = result;
+                        }
+                    }
+                });
+            } catch (InterruptedException e) {
+                Timber.d("加载缩略图描述被取消：%s", url);
+            } catch (IOException e) {
+                Timber.w(e, "加载缩略图描述失败：%s", url);
+
+                //忘掉地址，下次获取缩略图时重新加载
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (url.equals(sourceUrl)) {
+                            sourceUrl = null;
+                            sourceTask = null;
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * 下载和解码图片
+     */
+    private final class ImageTask implements Runnable {
+        private final String imageUrl;
+        private final List<Cue> cues;
+
+        ImageTask(String imageUrl, List<Cue> cues) {
+            this.imageUrl = imageUrl;
+            this.cues = cues;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+            List<Object> thumbnails = null;
+            boolean failed = false;
+            try {
+                thumbnails = decodeThumbnails(imageUrl, cues);
+            } catch (InterruptedException e) {
+                Timber.d("加载缩略图被取消：%s", imageUrl);
+            } catch (IOException | OutOfMemoryError e) {
+                Timber.w(e, "加载缩略图失败：%s", imageUrl);
+                failed = true;
+            }
+
+            final List<Object> result = thumbnails;
+            final boolean retry = !failed;
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    //失败的不再重试，避免拖动时反复请求
+                    if (retry) {
+                        loadingImages.remove(imageUrl);
+                    }
+
+                    if (result == null) {
+                        return;
+                    }
+
+                    for (int i = 0; i + 1 < result.size(); i += 2) {
+                        cache.put((String) result.get(i), (Bitmap) result.get(i + 1));
+                    }
+
+                    if (onThumbnailLoadedListener != null) {
+                        onThumbnailLoadedListener.onThumbnailLoaded();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 一张缩略图的描述
+     */
+    static final class Cue {
+        final long startMs;
+        final String imageUrl;
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+        final String key;
+
+        Cue(long startMs, String imageUrl, int x, int y, int width, int height) {
+            this.startMs = startMs;
+            this.imageUrl = imageUrl;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.key = imageUrl + XYWH + x + "," + y + "," + width + "," + height;
+        }
+    }
+
+    /**
+     * 内存不足时释放缓存
+     */
+    private final class MemoryCallbacks implements ComponentCallbacks2 {
+
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                cache.evictAll();
+            } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                cache.trimToSize(cache.maxSize() / 2);
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+    }
+
+    /**
+     * 缩略图加载完成的监听
+     */
+    public interface OnThumbnailLoadedListener {
+
+        void onThumbnailLoaded();
+    }
+}
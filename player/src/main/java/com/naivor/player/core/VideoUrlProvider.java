@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.core;
+
+/**
+ * 提供 list 中某个位置的视频地址，用于预加载还没有显示出来的视频
+ * <p>
+ * Created by naivor on 17-8-16.
+ */
+
+public interface VideoUrlProvider {
+
+    /**
+     * 获取某个位置的视频地址
+     *
+     * @param position
+     * @return 没有视频返回null
+     */
+    String getVideoUrl(int position);
+}
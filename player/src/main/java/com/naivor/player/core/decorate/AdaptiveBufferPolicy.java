@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.core.decorate;
+
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+
+import lombok.NonNull;
+
+/**
+ * 自适应的缓冲策略
+ * <p>
+ * 根据网速和视频码率的比值调整水位：网速快时少缓冲就开始播放，网速慢时多缓冲，
+ * 卡顿越多开始播放需要的缓冲越多，短视频的水位不超过视频时长
+ * <p>
+ * Created by naivor on 17-8-22.
+ */
+
+public final class AdaptiveBufferPolicy implements BufferPolicy {
+
+    public static final int MAX_BUFFER_LIMIT_MS = 60000;   //水位上限
+    public static final int REBUFFER_PLAYBACK_STEP_MS = 1000;   //每次卡顿增加的开始播放缓冲
+    public static final int REBUFFER_MIN_BUFFER_STEP_MS = 5000;   //每次卡顿增加的低水位
+    public static final int LONG_REBUFFER_MS = 3000;   //超过这个时长的卡顿记两次
+    public static final int MAX_REBUFFER_COUNT = 5;
+    public static final int UPDATE_INTERVAL_MS = 1000;   //网速变化后最多1秒更新水位
+
+    private static final float FAST_RATIO = 2f;   //网速是码率的2倍以上
+    private static final float ENOUGH_RATIO = 1.2f;
+    private static final float SLOW_RATIO = 1f;   //网速低于码率
+
+    private final BandwidthMeter bandwidthMeter;
+
+    private volatile long durationUs = C.TIME_UNSET;
+    private volatile int bitrate = Format.NO_VALUE;
+
+    private volatile int rebufferCount;
+
+    //算好的水位，播放线程每次循环都会读取，不在读取时计算
+    private volatile long minBufferUs;
+    private volatile long maxBufferUs;
+    private volatile long bufferForPlaybackUs;
+    private volatile long bufferForPlaybackAfterRebufferUs;
+    private volatile long lastUpdateMs;
+
+    public AdaptiveBufferPolicy(@NonNull BandwidthMeter bandwidthMeter) {
+        this.bandwidthMeter = bandwidthMeter;
+
+        updateWatermarks();
+    }
+
+    @Override
+    public long getMinBufferUs() {
+        maybeUpdateWatermarks();
+
+        return minBufferUs;
+    }
+
+    @Override
+    public long getMaxBufferUs() {
+        maybeUpdateWatermarks();
+
+        return maxBufferUs;
+    }
+
+    @Override
+    public long getBufferForPlaybackUs(boolean rebuffering) {
+        maybeUpdateWatermarks();
+
+        return rebuffering ? bufferForPlaybackAfterRebufferUs : bufferForPlaybackUs;
+    }
+
+    @Override
+    public void onTracksSelected(int bitrate) {
+        this.bitrate = bitrate;
+
+        updateWatermarks();
+    }
+
+    @Override
+    public void onDurationChanged(long durationUs) {
+        this.durationUs = durationUs;
+
+        updateWatermarks();
+    }
+
+    @Override
+    public void onRebufferStarted() {
+        rebufferCount = Math.min(rebufferCount + 1, MAX_REBUFFER_COUNT);
+
+        updateWatermarks();
+    }
+
+    @Override
+    public void onRebufferEnded(long rebufferDurationUs) {
+        if (rebufferDurationUs >= LONG_REBUFFER_MS * 1000L) {
+            rebufferCount = Math.min(rebufferCount + 1, MAX_REBUFFER_COUNT);
+
+            updateWatermarks();
+        }
+    }
+
+    @Override
+    public void onReset() {
+        //网络状况一般会持续一段时间，卡顿记录减半保留给下一个视频
+        rebufferCount /= 2;
+
+        bitrate = Format.NO_VALUE;
+        durationUs = C.TIME_UNSET;
+
+        updateWatermarks();
+    }
+
+    /**
+     * 卡顿次数
+     *
+     * @return
+     */
+    public int getRebufferCount() {
+        return rebufferCount;
+    }
+
+    /**
+     * 距离上次计算超过间隔时重新计算，跟上网速的变化
+     */
+    private void maybeUpdateWatermarks() {
+        if (SystemClock.elapsedRealtime() - lastUpdateMs >= UPDATE_INTERVAL_MS) {
+            updateWatermarks();
+        }
+    }
+
+    /**
+     * 计算水位
+     */
+    private synchronized void updateWatermarks() {
+        lastUpdateMs = SystemClock.elapsedRealtime();
+
+        float ratio = getThroughputRatio();
+        int count = rebufferCount;
+
+        //低水位，网速不够时多缓冲一些
+        long minUs = VideoLoadControl.DEFAULT_MIN_BUFFER_MS * 1000L;
+        if (!Float.isNaN(ratio) && ratio < ENOUGH_RATIO) {
+            minUs = VideoLoadControl.DEFAULT_MAX_BUFFER_MS * 1000L;
+        }
+        minUs += count * REBUFFER_MIN_BUFFER_STEP_MS * 1000L;
+        minUs = limitToDuration(Math.min(minUs, MAX_BUFFER_LIMIT_MS * 1000L));
+
+        //高水位
+        long maxUs = Math.max(minUs * 2, VideoLoadControl.DEFAULT_MAX_BUFFER_MS * 1000L);
+        maxUs = limitToDuration(Math.min(maxUs, MAX_BUFFER_LIMIT_MS * 1000L));
+
+        minBufferUs = minUs;
+        maxBufferUs = maxUs;
+        bufferForPlaybackUs = computeBufferForPlaybackUs(
+                VideoLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS * 1000L, ratio, count, minUs);
+        bufferForPlaybackAfterRebufferUs = computeBufferForPlaybackUs(
+                VideoLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS * 1000L, ratio, count, minUs);
+    }
+
+    /**
+     * 开始播放需要的缓冲，网速快时少一些，卡顿越多越多
+     *
+     * @param bufferUs    默认值
+     * @param ratio       网速和码率的比值
+     * @param count       卡顿次数
+     * @param minBufferUs 低水位
+     * @return
+     */
+    private long computeBufferForPlaybackUs(long bufferUs, float ratio, int count, long minBufferUs) {
+        if (!Float.isNaN(ratio)) {
+            if (ratio >= FAST_RATIO) {
+                bufferUs /= 4;
+            } else if (ratio >= ENOUGH_RATIO) {
+                bufferUs /= 2;
+            } else if (ratio < SLOW_RATIO) {
+                bufferUs *= 2;
+            }
+        }
+
+        bufferUs += count * REBUFFER_PLAYBACK_STEP_MS * 1000L;
+
+        bufferUs = Math.min(bufferUs, minBufferUs);
+
+        //短视频缓冲一半就可以开始播放
+        long duration = durationUs;
+        if (duration != C.TIME_UNSET) {
+            bufferUs = Math.min(bufferUs, duration / 2);
+        }
+
+        return bufferUs;
+    }
+
+    /**
+     * 网速和视频码率的比值
+     *
+     * @return 未知时返回 NaN
+     */
+    private float getThroughputRatio() {
+        long bitrateEstimate = bandwidthMeter.getBitrateEstimate();
+        int currentBitrate = bitrate;
+
+        if (bitrateEstimate == BandwidthMeter.NO_ESTIMATE || currentBitrate <= 0) {
+            return Float.NaN;
+        }
+
+        return (float) bitrateEstimate / currentBitrate;
+    }
+
+    /**
+     * 水位不超过视频时长
+     *
+     * @param bufferUs
+     * @return
+     */
+    private long limitToDuration(long bufferUs) {
+        long duration = durationUs;
+        if (duration != C.TIME_UNSET && duration > 0) {
+            return Math.min(bufferUs, duration);
+        }
+        return bufferUs;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.core.decorate;
+
+/**
+ * 缓冲策略，决定 VideoLoadControl 的缓冲水位和开始播放的阈值
+ * <p>
+ * 方法在播放线程调用，时长的单位都是微秒
+ * <p>
+ * Created by naivor on 17-8-22.
+ */
+
+public interface BufferPolicy {
+
+    /**
+     * 低水位，缓冲低于这个时长时一定继续加载
+     *
+     * @return
+     */
+    long getMinBufferUs();
+
+    /**
+     * 高水位，缓冲高于这个时长时停止加载
+     *
+     * @return
+     */
+    long getMaxBufferUs();
+
+    /**
+     * 开始播放需要的缓冲时长
+     *
+     * @param rebuffering 是否是播放中卡顿后的缓冲
+     * @return
+     */
+    long getBufferForPlaybackUs(boolean rebuffering);
+
+    /**
+     * 选择了新的轨道
+     *
+     * @param bitrate 选中轨道的总码率，未知时为 Format.NO_VALUE
+     */
+    void onTracksSelected(int bitrate);
+
+    /**
+     * 视频时长变化
+     *
+     * @param durationUs 未知时为 C.TIME_UNSET
+     */
+    void onDurationChanged(long durationUs);
+
+    /**
+     * 播放中卡顿，开始重新缓冲
+     */
+    void onRebufferStarted();
+
+    /**
+     * 重新缓冲结束，恢复播放
+     *
+     * @param rebufferDurationUs 本次卡顿的时长
+     */
+    void onRebufferEnded(long rebufferDurationUs);
+
+    /**
+     * 停止播放或者准备新的视频
+     */
+    void onReset();
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.core.decorate;
+
+/**
+ * 固定水位的缓冲策略，默认使用
+ * <p>
+ * Created by naivor on 17-8-22.
+ */
+
+public final class FixedBufferPolicy implements BufferPolicy {
+
+    private final long minBufferUs;
+    private final long maxBufferUs;
+    private final long bufferForPlaybackUs;
+    private final long bufferForPlaybackAfterRebufferUs;
+
+    public FixedBufferPolicy() {
+        this(VideoLoadControl.DEFAULT_MIN_BUFFER_MS, VideoLoadControl.DEFAULT_MAX_BUFFER_MS,
+                VideoLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+                VideoLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS);
+    }
+
+    public FixedBufferPolicy(int minBufferMs, int maxBufferMs,
+                             long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs) {
+        this.minBufferUs = minBufferMs * 1000L;
+        this.maxBufferUs = maxBufferMs * 1000L;
+        this.bufferForPlaybackUs = bufferForPlaybackMs * 1000L;
+        this.bufferForPlaybackAfterRebufferUs = bufferForPlaybackAfterRebufferMs * 1000L;
+    }
+
+    @Override
+    public long getMinBufferUs() {
+        return minBufferUs;
+    }
+
+    @Override
+    public long getMaxBufferUs() {
+        return maxBufferUs;
+    }
+
+    @Override
+    public long getBufferForPlaybackUs(boolean rebuffering) {
+        return rebuffering ? bufferForPlaybackAfterRebufferUs : bufferForPlaybackUs;
+    }
+
+    @Override
+    public void onTracksSelected(int bitrate) {
+    }
+
+    @Override
+    public void onDurationChanged(long durationUs) {
+    }
+
+    @Override
+    public void onRebufferStarted() {
+    }
+
+    @Override
+    public void onRebufferEnded(long rebufferDurationUs) {
+    }
+
+    @Override
+    public void onReset() {
+    }
+}
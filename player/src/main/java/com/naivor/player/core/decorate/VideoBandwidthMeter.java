@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.core.decorate;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.SlidingPercentile;
+import com.naivor.player.utils.SPUtils;
+import com.naivor.player.utils.Utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.NonNull;
+import timber.log.Timber;
+
+/**
+ * 带宽估算，所有播放源共用一个
+ * <p>
+ * 每种网络类型分别用滑动窗口估算带宽，估算值保存到本地，下次启动应用后第一个视频也能选择合适的码率
+ * <p>
+ * Created by naivor on 17-8-21.
+ */
+
+public final class VideoBandwidthMeter implements BandwidthMeter, TransferListener<Object> {
+
+    public static final int DEFAULT_MAX_WEIGHT = 2000;  //滑动窗口的大小
+    public static final int SAVE_INTERVAL_MS = 10000;  //保存估算值的最小间隔
+
+    private static final String SP_BANDWIDTH = "SP_BANDWIDTH_";
+    private static final String NETWORK_NONE = "none";
+
+    private final ConnectivityManager connectivityManager;
+    private final int maxWeight;
+
+    //每种网络的滑动窗口
+    private final Map<String, SlidingPercentile> slidingPercentiles;
+
+    private String networkType;
+    //播放线程频繁读取，不加锁
+    private volatile long bitrateEstimate;
+
+    private int streamCount;
+    private long sampleStartTimeMs;
+    private long sampleBytesTransferred;
+    private long totalBytesTransferred;
+
+    private long lastSaveTimeMs;
+
+    public VideoBandwidthMeter(@NonNull Context context) {
+        this(context, DEFAULT_MAX_WEIGHT);
+    }
+
+    public VideoBandwidthMeter(@NonNull Context context, int maxWeight) {
+        this.connectivityManager = (ConnectivityManager) context.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.maxWeight = maxWeight;
+
+        //估算值保存在播放器的SP中，已经初始化过不会重复初始化
+        SPUtils.init(context.getApplicationContext(), Utils.SP_VIDEO);
+
+        slidingPercentiles = new HashMap<>();
+        bitrateEstimate = NO_ESTIMATE;
+
+        //第一个视频开始加载前就使用上次保存的估算值
+        synchronized (this) {
+            updateNetworkType();
+        }
+    }
+
+    /**
+     * 网络类型只在开始加载时检查，这里直接返回，不查询网络状态
+     *
+     * @return
+     */
+    @Override
+    public long getBitrateEstimate() {
+        return bitrateEstimate;
+    }
+
+    /**
+     * 加载的总字节数
+     *
+     * @return
+     */
+    public synchronized long getTotalBytesTransferred() {
+        return totalBytesTransferred;
+    }
+
+    @Override
+    public synchronized void onTransferStart(Object source, DataSpec dataSpec) {
+        if (streamCount == 0) {
+            updateNetworkType();
+            sampleStartTimeMs = SystemClock.elapsedRealtime();
+        }
+        streamCount++;
+    }
+
+    @Override
+    public synchronized void onBytesTransferred(Object source, int bytesTransferred) {
+        sampleBytesTransferred += bytesTransferred;
+        totalBytesTransferred += bytesTransferred;
+    }
+
+    @Override
+    public synchronized void onTransferEnd(Object source) {
+        if (streamCount <= 0) {
+            return;
+        }
+
+        long nowMs = SystemClock.elapsedRealtime();
+        int sampleElapsedTimeMs = (int) (nowMs - sampleStartTimeMs);
+        if (sampleElapsedTimeMs > 0 && sampleBytesTransferred > 0) {
+            float bitsPerSecond = (sampleBytesTransferred * 8000) / sampleElapsedTimeMs;
+
+            SlidingPercentile slidingPercentile = getSlidingPercentile(networkType);
+            slidingPercentile.addSample((int) Math.sqrt(sampleBytesTransferred), bitsPerSecond);
+
+            float bitrateEstimateFloat = slidingPercentile.getPercentile(0.5f);
+            bitrateEstimate = Float.isNaN(bitrateEstimateFloat) ? NO_ESTIMATE : (long) bitrateEstimateFloat;
+
+            saveEstimate(nowMs);
+        }
+
+        if (--streamCount > 0) {
+            sampleStartTimeMs = nowMs;
+        }
+        sampleBytesTransferred = 0;
+    }
+
+    /**
+     * 网络变化时切换到对应网络的估算值
+     */
+    private void updateNetworkType() {
+        String type = getNetworkType();
+        if (!type.equals(networkType)) {
+            Timber.d("网络类型变化：%s -> %s", networkType, type);
+
+            networkType = type;
+
+            SlidingPercentile slidingPercentile = slidingPercentiles.get(type);
+            float estimate = slidingPercentile == null ? Float.NaN : slidingPercentile.getPercentile(0.5f);
+
+            if (Float.isNaN(estimate)) {  //本次还没有数据，使用上次保存的
+                bitrateEstimate = SPUtils.getLong(SP_BANDWIDTH + type, NO_ESTIMATE);
+            } else {
+                bitrateEstimate = (long) estimate;
+            }
+        }
+    }
+
+    /**
+     * 当前网络类型，移动网络区分2G/3G/4G
+     *
+     * @return
+     */
+    private String getNetworkType() {
+        NetworkInfo networkInfo = connectivityManager == null ? null : connectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return NETWORK_NONE;
+        }
+
+        if (networkInfo.getType() == ConnectivityManager.TYPE_MOBILE) {
+            return networkInfo.getType() + "_" + networkInfo.getSubtype();
+        }
+        return String.valueOf(networkInfo.getType());
+    }
+
+    /**
+     * @param type
+     * @return
+     */
+    private SlidingPercentile getSlidingPercentile(String type) {
+        SlidingPercentile slidingPercentile = slidingPercentiles.get(type);
+        if (slidingPercentile == null) {
+            slidingPercentile = new SlidingPercentile(maxWeight);
+
+            //用上次保存的估算值作为初始样本，避免新数据太少时估算值波动
+            long savedEstimate = SPUtils.getLong(SP_BANDWIDTH + type, NO_ESTIMATE);
+            if (savedEstimate != NO_ESTIMATE) {
+                slidingPercentile.addSample(1, savedEstimate);
+            }
+
+            slidingPercentiles.put(type, slidingPercentile);
+        }
+        return slidingPercentile;
+    }
+
+    /**
+     * 保存估算值，限制保存频率
+     *
+     * @param nowMs
+     */
+    private void saveEstimate(long nowMs) {
+        if (bitrateEstimate != NO_ESTIMATE && !NETWORK_NONE.equals(networkType)
+                && nowMs - lastSaveTimeMs >= SAVE_INTERVAL_MS) {
+            lastSaveTimeMs = nowMs;
+
+            SPUtils.save(SP_BANDWIDTH + networkType, bitrateEstimate);
+        }
+    }
+}
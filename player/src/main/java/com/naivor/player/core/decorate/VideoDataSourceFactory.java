@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.core.decorate;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.IOException;
+
+import lombok.NonNull;
+
+/**
+ * 数据工厂，媒体数据走缓存，播放列表（m3u8，mpd，ism manifest）直接从网络读取
+ * <p>
+ * HLS 的播放列表和分片用的是同一个数据工厂，直播的播放列表会不断刷新，不能缓存
+ * <p>
+ * Created by naivor on 17-8-18.
+ */
+
+public final class VideoDataSourceFactory implements DataSource.Factory {
+
+    private final DataSource.Factory cacheDataSourceFactory;
+    private final DataSource.Factory upstreamDataSourceFactory;
+
+    public VideoDataSourceFactory(@NonNull DataSource.Factory cacheDataSourceFactory,
+                                  @NonNull DataSource.Factory upstreamDataSourceFactory) {
+        this.cacheDataSourceFactory = cacheDataSourceFactory;
+        this.upstreamDataSourceFactory = upstreamDataSourceFactory;
+    }
+
+    @Override
+    public DataSource createDataSource() {
+        return new VideoDataSource();
+    }
+
+    /**
+     * 是否是播放列表
+     *
+     * @param uri
+     * @return
+     */
+    public static boolean isManifest(Uri uri) {
+        String path = uri.getPath();
+
+        if (!TextUtils.isEmpty(path)) {
+            path = path.toLowerCase();
+            return path.endsWith(".m3u8") || path.endsWith(".m3u") || path.endsWith(".mpd")
+                    || path.endsWith("/manifest");
+        }
+
+        return false;
+    }
+
+    /**
+     * 打开的时候根据地址选择是否使用缓存
+     */
+    private final class VideoDataSource implements DataSource {
+
+        private DataSource dataSource;
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            if (isManifest(dataSpec.uri)) {
+                dataSource = upstreamDataSourceFactory.createDataSource();
+            } else {
+                dataSource = cacheDataSourceFactory.createDataSource();
+            }
+
+            return dataSource.open(dataSpec);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            return dataSource.read(buffer, offset, readLength);
+        }
+
+        @Override
+        public Uri getUri() {
+            return dataSource == null ? null : dataSource.getUri();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (dataSource != null) {
+                try {
+                    dataSource.close();
+                } finally {
+                    dataSource = null;
+                }
+            }
+        }
+    }
+}
@@ -16,9 +16,14 @@
 
 package com.naivor.player.core.decorate;
 
+import android.content.ComponentCallbacks2;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.LoadControl;
 import com.google.android.exoplayer2.Renderer;
 import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.upstream.Allocator;
 import com.google.android.exoplayer2.upstream.DefaultAllocator;
@@ -28,6 +33,8 @@ import com.google.android.exoplayer2.util.Util;
 /**
  * 默认的播放加载控制器
  * <p>
+ * 缓冲水位由缓冲策略决定，默认是固定水位
+ * <p>
  * Created by naivor on 17-7-28.
  */
 
@@ -38,6 +45,9 @@ public final class VideoLoadControl implements LoadControl {
     public static final int DEFAULT_BUFFER_FOR_PLAYBACK_MS = 2500;
     public static final int DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS = 5000;
 
+    public static final int PRESSURE_MIN_BUFFER_MS = 10000;   //内存紧张时的低水位上限
+    public static final int PRESSURE_TIMEOUT_MS = 30000;   //这段时间没有收到内存警告就恢复正常缓冲
+
     private static final int ABOVE_HIGH_WATERMARK = 0;
     private static final int BETWEEN_WATERMARKS = 1;
     private static final int BELOW_LOW_WATERMARK = 2;
@@ -45,19 +55,39 @@ public final class VideoLoadControl implements LoadControl {
     private final DefaultAllocator allocator;
     private final PriorityTaskManager priorityTaskManager;
 
-    private final long minBufferUs;
-    private final long maxBufferUs;
-    private final long bufferForPlaybackUs;
-    private final long bufferForPlaybackAfterRebufferUs;
-    private int targetBufferSize;
+    private volatile BufferPolicy bufferPolicy;
+    //构造时传入的固定水位，没有设置缓冲策略时使用
+    private final BufferPolicy defaultBufferPolicy;
+    private volatile int targetBufferSize;
     private boolean isBuffering;
 
+    //根据设备内存等级确定的缓冲大小比例
+    private final float bufferSizeScale;
+
+    //最近一次内存警告
+    private volatile int trimMemoryLevel;
+    private volatile long trimMemoryTimeMs;
+
+    //卡顿后的重新缓冲
+    private boolean isRebuffering;
+    private long rebufferStartMs;
+
     private LoadControl loadControl;
 
     public VideoLoadControl() {
         this(new DefaultAllocator(true, Short.MAX_VALUE));
     }
 
+    public VideoLoadControl(PriorityTaskManager priorityTaskManager) {
+        this(priorityTaskManager, 1f);
+    }
+
+    public VideoLoadControl(PriorityTaskManager priorityTaskManager, float bufferSizeScale) {
+        this(new DefaultAllocator(true, Short.MAX_VALUE), DEFAULT_MIN_BUFFER_MS, DEFAULT_MAX_BUFFER_MS,
+                DEFAULT_BUFFER_FOR_PLAYBACK_MS, DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS, priorityTaskManager,
+                bufferSizeScale);
+    }
+
     public VideoLoadControl(DefaultAllocator allocator) {
         this(allocator, DEFAULT_MIN_BUFFER_MS, DEFAULT_MAX_BUFFER_MS,
                 DEFAULT_BUFFER_FOR_PLAYBACK_MS, DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS);
@@ -71,11 +101,18 @@ public final class VideoLoadControl implements LoadControl {
 
     public VideoLoadControl(DefaultAllocator allocator, int minBufferMs, int maxBufferMs,
                             long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs, PriorityTaskManager priorityTaskManager) {
+        this(allocator, minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs,
+                priorityTaskManager, 1f);
+    }
+
+    public VideoLoadControl(DefaultAllocator allocator, int minBufferMs, int maxBufferMs,
+                            long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs,
+                            PriorityTaskManager priorityTaskManager, float bufferSizeScale) {
         this.allocator = allocator;
-        this.minBufferUs = (long) minBufferMs * 1000L;
-        this.maxBufferUs = (long) maxBufferMs * 1000L;
-        this.bufferForPlaybackUs = bufferForPlaybackMs * 1000L;
-        this.bufferForPlaybackAfterRebufferUs = bufferForPlaybackAfterRebufferMs * 1000L;
+        this.bufferSizeScale = bufferSizeScale > 0 ? Math.min(bufferSizeScale, 1f) : 1f;
+        this.defaultBufferPolicy = new FixedBufferPolicy(minBufferMs, maxBufferMs, bufferForPlaybackMs,
+                bufferForPlaybackAfterRebufferMs);
+        this.bufferPolicy = defaultBufferPolicy;
         this.priorityTaskManager = priorityTaskManager;
     }
 
@@ -93,15 +130,28 @@ public final class VideoLoadControl implements LoadControl {
         if (loadControl != null) {
             loadControl.onTracksSelected(renderers, trackGroupArray, trackSelectionArray);
         } else {
-            this.targetBufferSize = 0;
+            int bufferSize = 0;
+            int bitrate = 0;
 
             for (int i = 0; i < renderers.length; ++i) {
-                if (trackSelectionArray.get(i) != null) {
-                    this.targetBufferSize += Util.getDefaultBufferSize(renderers[i].getTrackType());
+                TrackSelection trackSelection = trackSelectionArray.get(i);
+                if (trackSelection != null) {
+                    bufferSize += Util.getDefaultBufferSize(renderers[i].getTrackType());
+
+                    Format format = trackSelection.getSelectedFormat();
+                    if (bitrate != Format.NO_VALUE && format != null && format.bitrate != Format.NO_VALUE) {
+                        bitrate += format.bitrate;
+                    } else {
+                        bitrate = Format.NO_VALUE;
+                    }
                 }
             }
 
-            this.allocator.setTargetBufferSize(this.targetBufferSize);
+            //低内存设备按比例缩小缓冲
+            this.targetBufferSize = (int) (bufferSize * this.bufferSizeScale);
+
+            this.allocator.setTargetBufferSize(getTargetBufferSize());
+            this.bufferPolicy.onTracksSelected(bitrate);
         }
     }
 
@@ -137,8 +187,21 @@ public final class VideoLoadControl implements LoadControl {
         if (loadControl != null) {
             return loadControl.shouldStartPlayback(bufferedDurationUs, rebuffering);
         } else {
-            long minBufferDurationUs = rebuffering ? this.bufferForPlaybackAfterRebufferUs : this.bufferForPlaybackUs;
-            return minBufferDurationUs <= 0L || bufferedDurationUs >= minBufferDurationUs;
+            if (rebuffering && !this.isRebuffering) {
+                this.isRebuffering = true;
+                this.rebufferStartMs = SystemClock.elapsedRealtime();
+                this.bufferPolicy.onRebufferStarted();
+            }
+
+            long minBufferDurationUs = this.bufferPolicy.getBufferForPlaybackUs(rebuffering);
+            boolean startPlayback = minBufferDurationUs <= 0L || bufferedDurationUs >= minBufferDurationUs;
+
+            if (startPlayback && this.isRebuffering) {
+                this.isRebuffering = false;
+                this.bufferPolicy.onRebufferEnded((SystemClock.elapsedRealtime() - this.rebufferStartMs) * 1000L);
+            }
+
+            return startPlayback;
         }
     }
 
@@ -148,7 +211,7 @@ public final class VideoLoadControl implements LoadControl {
             return loadControl.shouldContinueLoading(bufferedDurationUs);
         } else {
             int bufferTimeState = this.getBufferTimeState(bufferedDurationUs);
-            boolean targetBufferSizeReached = this.allocator.getTotalBytesAllocated() >= this.targetBufferSize;
+            boolean targetBufferSizeReached = this.allocator.getTotalBytesAllocated() >= getTargetBufferSize();
             boolean wasBuffering = this.isBuffering;
             this.isBuffering = bufferTimeState == BELOW_LOW_WATERMARK
                     || bufferTimeState == BETWEEN_WATERMARKS && this.isBuffering && !targetBufferSizeReached;
@@ -170,8 +233,59 @@ public final class VideoLoadControl implements LoadControl {
      * @return
      */
     private int getBufferTimeState(long bufferedDurationUs) {
-        return bufferedDurationUs > this.maxBufferUs ? ABOVE_HIGH_WATERMARK
-                : (bufferedDurationUs < this.minBufferUs ? BELOW_LOW_WATERMARK : BETWEEN_WATERMARKS);
+        BufferPolicy policy = this.bufferPolicy;
+        long minBufferUs = policy.getMinBufferUs();
+        long maxBufferUs = policy.getMaxBufferUs();
+
+        int level = getTrimMemoryLevel();
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {  //内存紧张，高水位降到低水位
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                minBufferUs = Math.min(minBufferUs, PRESSURE_MIN_BUFFER_MS * 1000L);
+            }
+            maxBufferUs = Math.min(maxBufferUs, minBufferUs);
+        }
+
+        return bufferedDurationUs > maxBufferUs ? ABOVE_HIGH_WATERMARK
+                : (bufferedDurationUs < minBufferUs ? BELOW_LOW_WATERMARK : BETWEEN_WATERMARKS);
+    }
+
+    /**
+     * 内存紧张时缩小缓冲的大小
+     *
+     * @return
+     */
+    private int getTargetBufferSize() {
+        return getTrimMemoryLevel() >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                ? this.targetBufferSize / 2 : this.targetBufferSize;
+    }
+
+    /**
+     * 当前有效的内存警告等级，超时后失效
+     *
+     * @return
+     */
+    private int getTrimMemoryLevel() {
+        if (trimMemoryLevel != 0 && SystemClock.elapsedRealtime() - trimMemoryTimeMs > PRESSURE_TIMEOUT_MS) {
+            trimMemoryLevel = 0;
+        }
+        return trimMemoryLevel;
+    }
+
+    /**
+     * 收到内存警告，缩短缓冲并释放分配器中没有使用的内存
+     *
+     * @param level ComponentCallbacks2 中的等级
+     */
+    public void onTrimMemory(int level) {
+        if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {  //只是界面不可见，不是内存紧张
+            return;
+        }
+
+        trimMemoryLevel = Math.max(level, getTrimMemoryLevel());
+        trimMemoryTimeMs = SystemClock.elapsedRealtime();
+
+        allocator.setTargetBufferSize(getTargetBufferSize());
+        allocator.trim();
     }
 
 
@@ -185,12 +299,36 @@ public final class VideoLoadControl implements LoadControl {
         }
 
         this.isBuffering = false;
+        this.isRebuffering = false;
+        this.bufferPolicy.onReset();
         if (resetAllocator) {
             this.allocator.reset();
         }
 
     }
 
+    /**
+     * 视频时长变化，传给缓冲策略
+     *
+     * @param durationUs
+     */
+    public void setContentDuration(long durationUs) {
+        this.bufferPolicy.onDurationChanged(durationUs);
+    }
+
+    public BufferPolicy getBufferPolicy() {
+        return bufferPolicy;
+    }
+
+    /**
+     * 设置缓冲策略，为null时使用构造时传入的固定水位
+     *
+     * @param bufferPolicy
+     */
+    public void setBufferPolicy(BufferPolicy bufferPolicy) {
+        this.bufferPolicy = bufferPolicy != null ? bufferPolicy : defaultBufferPolicy;
+    }
+
     public LoadControl getLoadControl() {
         return loadControl;
     }
@@ -17,12 +17,15 @@
 package com.naivor.player.core.decorate;
 
 
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.RendererCapabilities;
 import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelectorResult;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
 
 /**
  * 轨道选择器
@@ -36,16 +39,51 @@ public final class VideoTrackSelector extends TrackSelector {
 
     private TrackSelector trackSelector;
 
+    //是否禁用音频渲染器，静音播放时不解码音频
+    private boolean audioDisabled;
+
+    //是否只播放声音，后台播放时不解码视频
+    private boolean audioOnly;
+    //声音是否混在视频的各个清晰度中，是的话不能禁用视频
+    private boolean audioMuxed;
+
     public VideoTrackSelector() {
         defaultTrackSelector = new DefaultTrackSelector();
     }
 
+    /**
+     * 根据带宽估算自适应选择码率
+     *
+     * @param bandwidthMeter
+     */
+    public VideoTrackSelector(BandwidthMeter bandwidthMeter) {
+        if (bandwidthMeter != null) {
+            defaultTrackSelector = new DefaultTrackSelector(new AdaptiveTrackSelection.Factory(bandwidthMeter));
+        } else {
+            defaultTrackSelector = new DefaultTrackSelector();
+        }
+    }
+
     @Override
     public TrackSelectorResult selectTracks(RendererCapabilities[] rendererCapabilities,
                                             TrackGroupArray trackGroupArray) throws ExoPlaybackException {
         if (trackSelector != null) {
             return trackSelector.selectTracks(rendererCapabilities, trackGroupArray);
         } else {
+            //声音混在视频里时不能禁用视频，只能选最低码率
+            boolean videoDisabled = audioOnly && !audioMuxed;
+
+            for (int i = 0; i < rendererCapabilities.length; i++) {
+                int trackType = rendererCapabilities[i].getTrackType();
+                if (trackType == C.TRACK_TYPE_AUDIO
+                        && defaultTrackSelector.getRendererDisabled(i) != audioDisabled) {
+                    defaultTrackSelector.setRendererDisabled(i, audioDisabled);
+                } else if (trackType == C.TRACK_TYPE_VIDEO
+                        && defaultTrackSelector.getRendererDisabled(i) != videoDisabled) {
+                    defaultTrackSelector.setRendererDisabled(i, videoDisabled);
+                }
+            }
+
             return defaultTrackSelector.selectTracks(rendererCapabilities, trackGroupArray);
         }
     }
@@ -59,6 +97,78 @@ public final class VideoTrackSelector extends TrackSelector {
         }
     }
 
+    /**
+     * 设置显示区域的大小，超过显示区域的清晰度不会被选中，大小变化时重新选择轨道
+     *
+     * @param width
+     * @param height
+     * @param orientationMayChange 屏幕方向是否会改变，会改变时宽高可以互换
+     */
+    public void setViewportSize(int width, int height, boolean orientationMayChange) {
+        DefaultTrackSelector.Parameters parameters = defaultTrackSelector.getParameters();
+        if (parameters.viewportWidth == width && parameters.viewportHeight == height
+                && parameters.viewportOrientationMayChange == orientationMayChange) {
+            return;
+        }
+
+        defaultTrackSelector.setParameters(parameters.withViewportSize(width, height, orientationMayChange));
+
+        //包装的选择器没有绑定播放器，需要通知播放器重新选择轨道
+        invalidate();
+    }
+
+    /**
+     * 清除显示区域的限制
+     */
+    public void clearViewportConstraints() {
+        setViewportSize(Integer.MAX_VALUE, Integer.MAX_VALUE, true);
+    }
+
+    /**
+     * 禁用音频渲染器，不选择音频轨道，也就不会解码音频，自定义的轨道选择器不受影响
+     *
+     * @param audioDisabled
+     */
+    public void setAudioDisabled(boolean audioDisabled) {
+        if (this.audioDisabled != audioDisabled) {
+            this.audioDisabled = audioDisabled;
+
+            invalidate();
+        }
+    }
+
+    public boolean isAudioDisabled() {
+        return audioDisabled;
+    }
+
+    /**
+     * 只播放声音，自定义的轨道选择器不受影响
+     * <p>
+     * 声音是单独的轨道时（DASH、SmoothStreaming 的音频自适应集），禁用视频渲染器，不再下载和解码视频；
+     * 单个文件的视频也禁用，只是不解码；声音混在视频的各个清晰度中时（一般的 HLS），
+     * 禁用视频后还会继续下载当前清晰度，所以保留视频渲染器，改为选择码率最低的
+     *
+     * @param audioOnly
+     * @param audioMuxed 声音是否混在可切换的视频清晰度中
+     */
+    public void setAudioOnly(boolean audioOnly, boolean audioMuxed) {
+        if (this.audioOnly != audioOnly || this.audioMuxed != audioMuxed) {
+            this.audioOnly = audioOnly;
+            this.audioMuxed = audioMuxed;
+
+            //超出限制时选择最低的
+            boolean lowestBitrate = audioOnly && audioMuxed;
+            DefaultTrackSelector.Parameters parameters = defaultTrackSelector.getParameters();
+            defaultTrackSelector.setParameters(parameters.withMaxVideoBitrate(lowestBitrate ? 0 : Integer.MAX_VALUE));
+
+            invalidate();
+        }
+    }
+
+    public boolean isAudioOnly() {
+        return audioOnly;
+    }
+
     public TrackSelector getTrackSelector() {
         return trackSelector;
     }
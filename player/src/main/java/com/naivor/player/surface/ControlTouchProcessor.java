@@ -146,6 +146,7 @@ public class ControlTouchProcessor {
                 }
                 break;
             case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
                 Timber.d(" actionUp ");
 
                 if (onControllViewListener != null) {
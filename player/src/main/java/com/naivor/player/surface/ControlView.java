@@ -31,7 +31,6 @@ import android.widget.SeekBar;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.Timeline;
-import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.Util;
 import com.naivor.player.R;
 import com.naivor.player.constant.ScreenState;
@@ -39,9 +38,6 @@ import com.naivor.player.constant.VideoState;
 import com.naivor.player.controll.PlayController;
 import com.naivor.player.controll.PositionController;
 
-import java.util.Arrays;
-import java.util.Formatter;
-import java.util.Locale;
 
 import lombok.NonNull;
 import timber.log.Timber;
@@ -60,6 +56,9 @@ public class ControlView extends FrameLayout implements PlayController, Position
     public static final int MAX_WINDOWS_FOR_MULTI_WINDOW_TIME_BAR = 100;
     public static final long MAX_POSITION_FOR_SEEK_TO_PREVIOUS = 3000;
 
+    public static final int SCRUB_SEEK_INTERVAL_MS = 500;  //拖动时预览跳转的最小间隔
+    public static final int SCRUB_SEEK_MIN_DISTANCE_MS = 1000;  //拖动时离上次预览位置太近不跳转
+
     protected ExoPlayer player;
 
     protected ComponentListener componentListener;  //监听器
@@ -67,8 +66,9 @@ public class ControlView extends FrameLayout implements PlayController, Position
     protected ControlViewHolder viewHolder;  //控制栏按钮容器
     protected OnControllViewListener onControllViewListener;  //控制栏监听器
 
-    protected StringBuilder formatBuilder;
-    protected Formatter formatter;
+    //时间显示，两个 TextView 各用一个，复用 char 数组
+    protected TimeFormatter durationFormatter;
+    protected TimeFormatter positionFormatter;
     protected Timeline.Period period;
     protected Timeline.Window window;
 
@@ -80,16 +80,33 @@ public class ControlView extends FrameLayout implements PlayController, Position
     protected int fastForwardMs;
     protected int showTimeoutMs;
     protected long hideAtMs;
-    protected long[] adBreakTimesMs;
 
-    //更新播放进度
-    protected final Runnable updateProgressAction = new Runnable() {
+    //多窗口进度条的时间线索引，时间线变化时重建
+    protected TimelineIndex timelineIndex;
+
+    //更新播放进度，由共用的 ProgressTicker 在帧开始时回调
+    protected final ProgressTicker.OnTickListener progressTickListener = new ProgressTicker.OnTickListener() {
         @Override
-        public void run() {
+        public void onTick() {
             updateProgress();
         }
     };
 
+    //拖动进度时的目标位置，松手时跳转
+    protected int scrubWindowIndex;
+    protected long scrubPositionMs;
+    //上次预览跳转的位置和时间
+    protected long lastScrubSeekPositionMs;
+    protected long lastScrubSeekAtMs;
+
+    //拖动时合并的预览跳转
+    protected final Runnable scrubSeekAction = new Runnable() {
+        @Override
+        public void run() {
+            seekToScrubPosition();
+        }
+    };
+
     //隐藏控制栏
     protected final Runnable hideAction = new Runnable() {
         @Override
@@ -122,12 +139,14 @@ public class ControlView extends FrameLayout implements PlayController, Position
         rewindMs = DEFAULT_REWIND_MS;
         fastForwardMs = DEFAULT_FAST_FORWARD_MS;
         showTimeoutMs = DEFAULT_SHOW_TIMEOUT_MS;
+        scrubPositionMs = C.TIME_UNSET;
+        lastScrubSeekPositionMs = C.TIME_UNSET;
 
         period = new Timeline.Period();
         window = new Timeline.Window();
-        formatBuilder = new StringBuilder();
-        formatter = new Formatter(formatBuilder, Locale.getDefault());
-        adBreakTimesMs = new long[0];
+        durationFormatter = new TimeFormatter();
+        positionFormatter = new TimeFormatter();
+        timelineIndex = new TimelineIndex();
         componentListener = new ComponentListener();
 
         controlTouchProcessor = new ControlTouchProcessor(context);
@@ -180,8 +199,12 @@ public class ControlView extends FrameLayout implements PlayController, Position
             return;
         }
 
+        //换播放器时放弃没有完成的拖动
+        stopScrub(false);
+
         this.player = player;
 
+        updateTimeBarMode();
         updateAll();
     }
 
@@ -236,9 +259,11 @@ public class ControlView extends FrameLayout implements PlayController, Position
             if (onControllViewListener != null) {
                 onControllViewListener.onVisibilityChange(viewHolder.buttomLayout.getVisibility());
             }
-            removeCallbacks(updateProgressAction);
             removeCallbacks(hideAction);
             hideAtMs = C.TIME_UNSET;
+
+            //隐藏后只在播放时继续更新底部进度条
+            updateProgress();
         }
     }
 
@@ -352,14 +377,24 @@ public class ControlView extends FrameLayout implements PlayController, Position
     }
 
     /**
-     * 更新进度条模式
+     * 更新进度条模式，时间线变化时调用，多窗口时重建时间线索引
      */
     public void updateTimeBarMode() {
         if (player == null) {
+            multiWindowTimeBar = false;
+            timelineIndex.clear();
             return;
         }
+
+        Timeline timeline = player.getCurrentTimeline();
         multiWindowTimeBar = showMultiWindowTimeBar
-                && canShowMultiWindowTimeBar(player.getCurrentTimeline(), period);
+                && canShowMultiWindowTimeBar(timeline, period);
+
+        if (multiWindowTimeBar) {
+            timelineIndex.rebuild(timeline, window, period);
+        } else {
+            timelineIndex.clear();
+        }
     }
 
     /**
@@ -372,53 +407,21 @@ public class ControlView extends FrameLayout implements PlayController, Position
         long duration = 0;
         if (player != null) {
             if (multiWindowTimeBar) {
-                Timeline timeline = player.getCurrentTimeline();
-                int windowCount = timeline.getWindowCount();
-                int periodIndex = player.getCurrentPeriodIndex();
-                long positionUs = 0;
-                long bufferedPositionUs = 0;
-                long durationUs = 0;
-                boolean isInAdBreak = false;
-                boolean isPlayingAd = false;
-                int adBreakCount = 0;
-                for (int i = 0; i < windowCount; i++) {
-                    timeline.getWindow(i, window);
-                    for (int j = window.firstPeriodIndex; j <= window.lastPeriodIndex; j++) {
-                        if (timeline.getPeriod(j, period).isAd) {
-                            isPlayingAd |= j == periodIndex;
-                            if (!isInAdBreak) {
-                                isInAdBreak = true;
-                                if (adBreakCount == adBreakTimesMs.length) {
-                                    adBreakTimesMs = Arrays.copyOf(adBreakTimesMs,
-                                            adBreakTimesMs.length == 0 ? 1 : adBreakTimesMs.length * 2);
-                                }
-                                adBreakTimesMs[adBreakCount++] = C.usToMs(durationUs);
-                            }
-                        } else {
-                            isInAdBreak = false;
-                            long periodDurationUs = period.getDurationUs();
-                            Assertions.checkState(periodDurationUs != C.TIME_UNSET);
-                            long periodDurationInWindowUs = periodDurationUs;
-                            if (j == window.firstPeriodIndex) {
-                                periodDurationInWindowUs -= window.positionInFirstPeriodUs;
-                            }
-                            if (i < periodIndex) {
-                                positionUs += periodDurationInWindowUs;
-                                bufferedPositionUs += periodDurationInWindowUs;
-                            }
-                            durationUs += periodDurationInWindowUs;
-                        }
-                    }
+                if (!timelineIndex.isValidFor(player.getCurrentTimeline())) {
+                    updateTimeBarMode();
                 }
-                position = C.usToMs(positionUs);
-                bufferedPosition = C.usToMs(bufferedPositionUs);
-                duration = C.usToMs(durationUs);
-                if (!isPlayingAd) {
+
+                //当前窗口之前的时长直接查索引
+                position = timelineIndex.getWindowOffsetMs(player.getCurrentWindowIndex());
+                bufferedPosition = position;
+                duration = timelineIndex.getDurationMs();
+                if (!timelineIndex.isAd(player.getCurrentPeriodIndex())) {
                     position += player.getCurrentPosition();
                     bufferedPosition += player.getBufferedPosition();
                 }
                 if (componentListener != null) {
-                    componentListener.setAdBreakTimesMs(adBreakTimesMs, adBreakCount);
+                    componentListener.setAdBreakTimesMs(timelineIndex.getAdBreakTimesMs(),
+                            timelineIndex.getAdBreakCount());
                 }
             } else {
                 position = player.getCurrentPosition();
@@ -426,19 +429,19 @@ public class ControlView extends FrameLayout implements PlayController, Position
                 duration = player.getDuration();
             }
         }
-        if (viewHolder.durationView != null) {
-            viewHolder.durationView.setText(Util.getStringForTime(formatBuilder, formatter, duration));
-        }
-        if (viewHolder.positionView != null && !scrubbing) {
-            viewHolder.positionView.setText(Util.getStringForTime(formatBuilder, formatter, position));
+        //控制栏不可见时不更新文字和进度条，秒数没变时不更新文字
+        boolean visible = isBottomVisible() && isAttachedToWindow;
+        if (visible) {
+            durationFormatter.setTime(viewHolder.durationView, duration);
+            if (!scrubbing) {
+                positionFormatter.setTime(viewHolder.positionView, position);
+            }
         }
         if (viewHolder.timeBar != null && !scrubbing) {
             int progress = duration == 0 ? 0 : (int) (position * 100 / duration);
             int bufferedProgress = duration == 0 ? 0 : (int) (bufferedPosition * 100 / duration);
 
-            Timber.v("更新进度：%s,缓冲进度：%s", progress, bufferedProgress);
-
-            if (isBottomVisible() && isAttachedToWindow) {
+            if (visible) {
                 viewHolder.timeBar.setProgress(progress);
                 viewHolder.timeBar.setSecondaryProgress(bufferedProgress);
             }
@@ -448,21 +451,40 @@ public class ControlView extends FrameLayout implements PlayController, Position
             }
         }
 
-        // Cancel any pending updates and schedule a new one if necessary.
-        removeCallbacks(updateProgressAction);
+        scheduleProgressTick(position);
+    }
+
+    /**
+     * 安排下一次更新进度，不在窗口中、窗口不可见、或者既没有播放也没有显示控制栏时停止
+     *
+     * @param position
+     */
+    protected void scheduleProgressTick(long position) {
+        ProgressTicker ticker = ProgressTicker.instance();
+
         int playbackState = player == null ? ExoPlayer.STATE_IDLE : player.getPlaybackState();
-        if (playbackState != ExoPlayer.STATE_IDLE && playbackState != ExoPlayer.STATE_ENDED) {
-            long delayMs;
-            if (player.getPlayWhenReady() && playbackState == ExoPlayer.STATE_READY) {
-                delayMs = 1000 - (position % 1000);
-                if (delayMs < 200) {
-                    delayMs += 1000;
-                }
-            } else {
-                delayMs = 1000;
+        if (!isAttachedToWindow || getWindowVisibility() != VISIBLE
+                || playbackState == ExoPlayer.STATE_IDLE || playbackState == ExoPlayer.STATE_ENDED) {
+            ticker.cancel(progressTickListener);
+            return;
+        }
+
+        boolean playing = player.getPlayWhenReady() && playbackState == ExoPlayer.STATE_READY;
+        if (!playing && !isBottomVisible()) {
+            ticker.cancel(progressTickListener);
+            return;
+        }
+
+        long delayMs;
+        if (playing) {
+            delayMs = 1000 - (position % 1000);
+            if (delayMs < 200) {
+                delayMs += 1000;
             }
-            postDelayed(updateProgressAction, delayMs);
+        } else {
+            delayMs = 1000;
         }
+        ticker.schedule(progressTickListener, delayMs);
     }
 
 
@@ -636,6 +658,132 @@ public class ControlView extends FrameLayout implements PlayController, Position
         }
     }
 
+    /**
+     * 是否正在拖动进度
+     *
+     * @return
+     */
+    public boolean isScrubbing() {
+        return scrubbing;
+    }
+
+    /**
+     * 拖动进度的目标位置
+     *
+     * @return 没有拖动时返回当前播放位置
+     */
+    public long getScrubPosition() {
+        if (scrubbing && scrubPositionMs != C.TIME_UNSET) {
+            return scrubPositionMs;
+        }
+        return getCurrentDuration();
+    }
+
+    /**
+     * 开始拖动进度，只更新界面，不马上跳转
+     */
+    public void startScrub() {
+        removeCallbacks(hideAction);
+
+        if (!scrubbing) {
+            scrubbing = true;
+            scrubPositionMs = C.TIME_UNSET;
+            lastScrubSeekPositionMs = C.TIME_UNSET;
+            lastScrubSeekAtMs = SystemClock.uptimeMillis();
+        }
+    }
+
+    /**
+     * 拖动到当前窗口的位置
+     *
+     * @param positionMs
+     */
+    public void scrubTo(long positionMs) {
+        if (player != null) {
+            scrubTo(player.getCurrentWindowIndex(), positionMs);
+        }
+    }
+
+    /**
+     * 拖动到进度条上的位置
+     *
+     * @param timebarPositionMs
+     */
+    protected void scrubToTimebarPosition(long timebarPositionMs) {
+        if (multiWindowTimeBar) {
+            int windowIndex = timelineIndex.getWindowIndex(timebarPositionMs);
+            if (windowIndex != C.INDEX_UNSET) {
+                scrubTo(windowIndex, timelineIndex.getPositionInWindowMs(timebarPositionMs));
+            }
+        } else {
+            scrubTo(timebarPositionMs);
+        }
+    }
+
+    /**
+     * 记录目标位置，预览跳转合并成每 SCRUB_SEEK_INTERVAL_MS 最多一次
+     *
+     * @param windowIndex
+     * @param positionMs
+     */
+    protected void scrubTo(int windowIndex, long positionMs) {
+        startScrub();
+
+        scrubWindowIndex = windowIndex;
+        scrubPositionMs = positionMs;
+
+        //已经有等待的跳转，到时间会用最新的位置
+        removeCallbacks(scrubSeekAction);
+        long delayMs = lastScrubSeekAtMs + SCRUB_SEEK_INTERVAL_MS - SystemClock.uptimeMillis();
+        if (isAttachedToWindow) {
+            postDelayed(scrubSeekAction, Math.max(0, delayMs));
+        }
+    }
+
+    /**
+     * 结束拖动，需要时跳转到最终位置
+     *
+     * @param seek 是否跳转
+     */
+    public void stopScrub(boolean seek) {
+        if (!scrubbing) {
+            return;
+        }
+
+        removeCallbacks(scrubSeekAction);
+        scrubbing = false;
+
+        if (seek && scrubPositionMs != C.TIME_UNSET) {
+            Timber.d("拖动结束，跳转到：%s", scrubPositionMs);
+
+            seekTo(scrubWindowIndex, scrubPositionMs);
+        }
+
+        scrubPositionMs = C.TIME_UNSET;
+        lastScrubSeekPositionMs = C.TIME_UNSET;
+
+        updateProgress();
+    }
+
+    /**
+     * 拖动时的预览跳转，离上次预览位置很近时不跳转
+     */
+    protected void seekToScrubPosition() {
+        if (!scrubbing || scrubPositionMs == C.TIME_UNSET) {
+            return;
+        }
+
+        if (lastScrubSeekPositionMs != C.TIME_UNSET
+                && Math.abs(scrubPositionMs - lastScrubSeekPositionMs) < SCRUB_SEEK_MIN_DISTANCE_MS) {
+            return;
+        }
+
+        lastScrubSeekAtMs = SystemClock.uptimeMillis();
+        lastScrubSeekPositionMs = scrubPositionMs;
+
+        seekTo(scrubWindowIndex, scrubPositionMs);
+    }
+
     /**
      * 快进
      *
@@ -643,34 +791,10 @@ public class ControlView extends FrameLayout implements PlayController, Position
      */
     protected void seekToTimebarPosition(long timebarPositionMs) {
         if (multiWindowTimeBar) {
-            Timeline timeline = player.getCurrentTimeline();
-            int windowCount = timeline.getWindowCount();
-            long remainingMs = timebarPositionMs;
-            for (int i = 0; i < windowCount; i++) {
-                timeline.getWindow(i, window);
-                for (int j = window.firstPeriodIndex; j <= window.lastPeriodIndex; j++) {
-                    if (!timeline.getPeriod(j, period).isAd) {
-                        long periodDurationMs = period.getDurationMs();
-                        if (periodDurationMs == C.TIME_UNSET) {
-                            // Should never happen as canShowMultiWindowTimeBar is true.
-                            throw new IllegalStateException();
-                        }
-                        if (j == window.firstPeriodIndex) {
-                            periodDurationMs -= window.getPositionInFirstPeriodMs();
-                        }
-                        if (i == windowCount - 1 && j == window.lastPeriodIndex
-                                && remainingMs >= periodDurationMs) {
-                            // Seeking past the end of the last window should seek to the end of the timeline.
-                            seekTo(i, window.getDurationMs());
-                            return;
-                        }
-                        if (remainingMs < periodDurationMs) {
-                            seekTo(i, period.getPositionInWindowMs() + remainingMs);
-                            return;
-                        }
-                        remainingMs -= periodDurationMs;
-                    }
-                }
+            //二分查找位置所在的窗口
+            int windowIndex = timelineIndex.getWindowIndex(timebarPositionMs);
+            if (windowIndex != C.INDEX_UNSET) {
+                seekTo(windowIndex, timelineIndex.getPositionInWindowMs(timebarPositionMs));
             }
         } else {
             Timber.d("从 %s 开始播放", timebarPositionMs);
@@ -699,8 +823,23 @@ public class ControlView extends FrameLayout implements PlayController, Position
     public void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         isAttachedToWindow = false;
-        removeCallbacks(updateProgressAction);
+        ProgressTicker.instance().cancel(progressTickListener);
         removeCallbacks(hideAction);
+        removeCallbacks(scrubSeekAction);
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+
+        //退到后台时停止更新，回来时马上更新一次
+        if (visibility == VISIBLE) {
+            if (isAttachedToWindow) {
+                updateProgress();
+            }
+        } else {
+            ProgressTicker.instance().cancel(progressTickListener);
+        }
     }
 
 
@@ -898,8 +1037,20 @@ public class ControlView extends FrameLayout implements PlayController, Position
         @Override
         public void onProgressChanged(SeekBar seekBar, int i, boolean b) {
 
-            if (viewHolder.positionView != null && b) {
-                viewHolder.positionView.setText(Util.getStringForTime(formatBuilder, formatter, getPositionTimeMs(i)));
+            if (b) {
+                long positionTimeMs = getPositionTimeMs(i);
+                if (viewHolder.positionView != null) {
+                    positionFormatter.setTime(viewHolder.positionView, positionTimeMs);
+                }
+
+                //拖动时只预览，松手时再跳转
+                if (scrubbing) {
+                    scrubToTimebarPosition(positionTimeMs);
+
+                    if (onControllViewListener != null) {
+                        onControllViewListener.onScrub(positionTimeMs);
+                    }
+                }
             }
         }
 
@@ -909,7 +1060,8 @@ public class ControlView extends FrameLayout implements PlayController, Position
          */
         protected long getPositionTimeMs(int progress) {
             if (player != null) {
-                return player.getDuration() * progress / 100;
+                long duration = multiWindowTimeBar ? timelineIndex.getDurationMs() : player.getDuration();
+                return duration * progress / 100;
             }
 
             return 0;
@@ -917,20 +1069,22 @@ public class ControlView extends FrameLayout implements PlayController, Position
 
         @Override
         public void onStartTrackingTouch(SeekBar seekBar) {
-            removeCallbacks(hideAction);
-            scrubbing = true;
+            startScrub();
         }
 
         @Override
         public void onStopTrackingTouch(SeekBar seekBar) {
-            scrubbing = false;
             if (player != null) {
                 int progress = seekBar.getProgress();
                 long positionTimeMs = getPositionTimeMs(progress);
-                seekToTimebarPosition(positionTimeMs);
+                scrubToTimebarPosition(positionTimeMs);
 
                 Timber.d("快进到：%s, 开始时间：%s", progress, positionTimeMs);
             }
+            stopScrub(true);
+            if (onControllViewListener != null) {
+                onControllViewListener.onTouchScreenEnd();
+            }
             hideAfterTimeout();
         }
     }
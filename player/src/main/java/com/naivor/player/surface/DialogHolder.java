@@ -20,6 +20,7 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.graphics.Bitmap;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -61,6 +62,7 @@ public class DialogHolder {
     protected TextView mDialogSeekTime;
     protected TextView mDialogTotalTime;
     protected ImageView mDialogIcon;
+    protected ImageView mDialogThumbnail;
 
     // 音量进度对话框
     protected Dialog mVolumeDialog;
@@ -130,6 +132,7 @@ public class DialogHolder {
             mDialogSeekTime = ((TextView) localView.findViewById(R.id.tv_current));
             mDialogTotalTime = ((TextView) localView.findViewById(R.id.tv_duration));
             mDialogIcon = ((ImageView) localView.findViewById(R.id.duration_image_tip));
+            mDialogThumbnail = ((ImageView) localView.findViewById(R.id.duration_thumbnail));
             mProgressDialog = createDialogWithView(localView);
         }
 
@@ -150,6 +153,36 @@ public class DialogHolder {
         mDialogProgressBar.setProgress(progress);
     }
 
+    /**
+     * 拖动进度对话框的缩略图，没有缩略图时显示快进快退图标
+     *
+     * @param thumbnail
+     */
+    public void setProgressThumbnail(Bitmap thumbnail) {
+        if (mProgressDialog == null || mDialogThumbnail == null) {
+            return;
+        }
+
+        if (thumbnail != null) {
+            mDialogThumbnail.setImageBitmap(thumbnail);
+            mDialogThumbnail.setVisibility(View.VISIBLE);
+            mDialogIcon.setVisibility(View.GONE);
+        } else {
+            mDialogThumbnail.setImageDrawable(null);
+            mDialogThumbnail.setVisibility(View.GONE);
+            mDialogIcon.setVisibility(View.VISIBLE);
+        }
+    }
+
+    /**
+     * 拖动进度对话框是否在显示
+     *
+     * @return
+     */
+    public boolean isProgressDialogShowing() {
+        return mProgressDialog != null && mProgressDialog.isShowing();
+    }
+
     /**
      * 创建对话框
      *
@@ -255,6 +288,7 @@ public class DialogHolder {
         //隐藏进度对话框
         if (mProgressDialog != null) {
             mProgressDialog.dismiss();
+            setProgressThumbnail(null);
         }
 
         //隐藏声音对话框
@@ -76,6 +76,13 @@ public interface OnControllViewListener {
      */
     void changePlayingPosition(float offset, int seekStep);
 
+    /**
+     * 拖动进度条，松手时回调 onTouchScreenEnd
+     *
+     * @param positionMs
+     */
+    void onScrub(long positionMs);
+
     /**
      * 屏幕状态
      *
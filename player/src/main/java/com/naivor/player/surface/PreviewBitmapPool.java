@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.surface;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 截取第一帧用的 Bitmap 池，list 中每个视频的预览大小一般相同，可以直接复用
+ * <p>
+ * 只在主线程使用
+ * <p>
+ * Created by naivor on 17-8-30.
+ */
+
+public final class PreviewBitmapPool {
+
+    public static final int MAX_POOL_SIZE = 3;
+
+    private static final List<Bitmap> pool = new ArrayList<>(MAX_POOL_SIZE);
+
+    private PreviewBitmapPool() {
+    }
+
+    /**
+     * 取出一个指定大小的 Bitmap，没有时创建，TextureView.getBitmap 要求 ARGB_8888
+     *
+     * @param width
+     * @param height
+     * @return
+     */
+    public static Bitmap acquire(int width, int height) {
+        for (int i = pool.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = pool.get(i);
+            if (bitmap.isRecycled()) {
+                pool.remove(i);
+            } else if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                pool.remove(i);
+                return bitmap;
+            }
+        }
+
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * 放回池中，池满时丢弃最早放回的
+     *
+     * @param bitmap
+     */
+    public static void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || pool.contains(bitmap)) {
+            return;
+        }
+
+        if (pool.size() >= MAX_POOL_SIZE) {
+            pool.remove(0);
+        }
+        pool.add(bitmap);
+    }
+
+    /**
+     * 清空，内存不足时调用
+     */
+    public static void clear() {
+        pool.clear();
+    }
+}
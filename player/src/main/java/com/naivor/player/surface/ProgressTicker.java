@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.surface;
+
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 播放进度的定时器，所有播放器共用一个
+ * <p>
+ * 通过 Choreographer 在帧开始时统一回调到期的监听，同一帧内一起更新，没有监听时不再请求帧
+ * <p>
+ * 只能在主线程使用
+ * <p>
+ * Created by naivor on 17-8-29.
+ */
+
+public final class ProgressTicker implements Choreographer.FrameCallback {
+
+    //提前这么多时间到期的也在这一帧回调，避免推迟一帧
+    private static final long FRAME_SLOP_MS = 8;
+
+    private static ProgressTicker progressTicker;
+
+    private final Choreographer choreographer;
+
+    private final List<Tick> ticks;
+    //回调时复用的数组，回调中可以注册和取消
+    private Tick[] dispatching;
+
+    private boolean frameScheduled;
+    private long scheduledAtMs;
+
+    /**
+     * 单例
+     *
+     * @return
+     */
+    public static ProgressTicker instance() {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            throw new IllegalStateException("ProgressTicker must be used on the main thread");
+        }
+
+        if (progressTicker == null) {
+            progressTicker = new ProgressTicker();
+        }
+        return progressTicker;
+    }
+
+    private ProgressTicker() {
+        choreographer = Choreographer.getInstance();
+        ticks = new ArrayList<>();
+        dispatching = new Tick[4];
+        scheduledAtMs = Long.MAX_VALUE;
+    }
+
+    /**
+     * 在 delayMs 之后的第一帧回调，已经注册的更新回调时间
+     *
+     * @param listener
+     * @param delayMs
+     */
+    public void schedule(OnTickListener listener, long delayMs) {
+        if (listener == null) {
+            return;
+        }
+
+        long dueAtMs = SystemClock.uptimeMillis() + Math.max(0, delayMs);
+
+        Tick tick = find(listener);
+        if (tick == null) {
+            tick = new Tick(listener);
+            ticks.add(tick);
+        }
+        tick.dueAtMs = dueAtMs;
+        tick.scheduled = true;
+
+        scheduleFrame();
+    }
+
+    /**
+     * 取消回调，没有监听时不再请求帧
+     *
+     * @param listener
+     */
+    public void cancel(OnTickListener listener) {
+        Tick tick = find(listener);
+        if (tick == null) {
+            return;
+        }
+
+        tick.listener = null;
+        tick.scheduled = false;
+        ticks.remove(tick);
+
+        if (ticks.isEmpty()) {
+            cancelFrame();
+        }
+    }
+
+    /**
+     * 是否在等待回调
+     *
+     * @param listener
+     * @return
+     */
+    public boolean isScheduled(OnTickListener listener) {
+        Tick tick = find(listener);
+        return tick != null && tick.scheduled;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        scheduledAtMs = Long.MAX_VALUE;
+
+        long nowMs = SystemClock.uptimeMillis() + FRAME_SLOP_MS;
+
+        //先取出到期的，回调的时候可以重新注册或者取消
+        int count = 0;
+        for (int i = 0, size = ticks.size(); i < size; i++) {
+            Tick tick = ticks.get(i);
+            if (tick.scheduled && tick.dueAtMs <= nowMs) {
+                tick.scheduled = false;
+                if (count == dispatching.length) {
+                    Tick[] expanded = new Tick[count * 2];
+                    System.arraycopy(dispatching, 0, expanded, 0, count);
+                    dispatching = expanded;
+                }
+                dispatching[count++] = tick;
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            Tick tick = dispatching[i];
+            dispatching[i] = null;
+
+            //同一帧里前面的回调取消了它
+            if (tick.listener != null) {
+                tick.listener.onTick();
+            }
+        }
+
+        //回调中没有重新注册的不再保留
+        for (int i = ticks.size() - 1; i >= 0; i--) {
+            if (!ticks.get(i).scheduled) {
+                ticks.remove(i).listener = null;
+            }
+        }
+
+        if (!ticks.isEmpty()) {
+            scheduleFrame();
+        }
+    }
+
+    /**
+     * 按最早到期的时间请求帧
+     */
+    private void scheduleFrame() {
+        long earliestMs = Long.MAX_VALUE;
+        for (int i = 0, size = ticks.size(); i < size; i++) {
+            Tick tick = ticks.get(i);
+            if (tick.scheduled) {
+                earliestMs = Math.min(earliestMs, tick.dueAtMs);
+            }
+        }
+
+        if (earliestMs == Long.MAX_VALUE) {
+            cancelFrame();
+            return;
+        }
+
+        if (frameScheduled && scheduledAtMs <= earliestMs) {
+            return;
+        }
+
+        cancelFrame();
+
+        frameScheduled = true;
+        scheduledAtMs = earliestMs;
+        choreographer.postFrameCallbackDelayed(this,
+                Math.max(0, earliestMs - SystemClock.uptimeMillis()));
+    }
+
+    private void cancelFrame() {
+        if (frameScheduled) {
+            choreographer.removeFrameCallback(this);
+            frameScheduled = false;
+            scheduledAtMs = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @param listener
+     * @return
+     */
+    private Tick find(OnTickListener listener) {
+        for (int i = 0, size = ticks.size(); i < size; i++) {
+            Tick tick = ticks.get(i);
+            if (tick.listener == listener) {
+                return tick;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 等待回调的监听
+     */
+    private static final class Tick {
+        private OnTickListener listener;
+        private long dueAtMs;
+        private boolean scheduled;
+
+        private Tick(OnTickListener listener) {
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * 到期回调，需要继续回调时在 onTick 中重新 schedule
+     */
+    public interface OnTickListener {
+
+        void onTick();
+    }
+}
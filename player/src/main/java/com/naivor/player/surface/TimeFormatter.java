@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.surface;
+
+import android.widget.TextView;
+
+import com.google.android.exoplayer2.C;
+
+/**
+ * 时间显示，格式和 Util.getStringForTime 一样（mm:ss 或 h:mm:ss）
+ * <p>
+ * 直接写入复用的 char 数组，显示的秒数没变时不更新 TextView，更新进度时不创建对象
+ * <p>
+ * Created by naivor on 17-8-29.
+ */
+
+public final class TimeFormatter {
+
+    private static final int MAX_LENGTH = 32;
+
+    private final char[] buffer;
+    private int length;
+
+    //当前显示的秒数
+    private long shownSeconds;
+
+    public TimeFormatter() {
+        buffer = new char[MAX_LENGTH];
+        reset();
+    }
+
+    /**
+     * 显示时间，秒数没变时不更新
+     *
+     * @param textView
+     * @param timeMs
+     * @return 是否更新了
+     */
+    public boolean setTime(TextView textView, long timeMs) {
+        if (textView == null) {
+            return false;
+        }
+
+        if (timeMs == C.TIME_UNSET || timeMs < 0) {
+            timeMs = 0;
+        }
+
+        long totalSeconds = (timeMs + 500) / 1000;
+        if (totalSeconds == shownSeconds) {
+            return false;
+        }
+        shownSeconds = totalSeconds;
+
+        format(totalSeconds);
+        textView.setText(buffer, 0, length);
+
+        return true;
+    }
+
+    /**
+     * 下次一定更新，TextView 被其他地方修改过时调用
+     */
+    public void reset() {
+        shownSeconds = Long.MIN_VALUE;
+    }
+
+    /**
+     * 格式化到 buffer
+     *
+     * @param totalSeconds
+     */
+    void format(long totalSeconds) {
+        long seconds = totalSeconds % 60;
+        long minutes = (totalSeconds / 60) % 60;
+        long hours = totalSeconds / 3600;
+
+        length = 0;
+        if (hours > 0) {
+            appendNumber(hours);
+            buffer[length++] = ':';
+        }
+        appendTwoDigits(minutes);
+        buffer[length++] = ':';
+        appendTwoDigits(seconds);
+    }
+
+    /**
+     * 格式化的结果，测试用
+     *
+     * @return
+     */
+    String getText() {
+        return new String(buffer, 0, length);
+    }
+
+    /**
+     * @param value
+     */
+    private void appendTwoDigits(long value) {
+        buffer[length++] = (char) ('0' + value / 10);
+        buffer[length++] = (char) ('0' + value % 10);
+    }
+
+    /**
+     * @param value
+     */
+    private void appendNumber(long value) {
+        int start = length;
+        do {
+            buffer[length++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+
+        //倒序写入的，翻转过来
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            char c = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = c;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.surface;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Timeline;
+
+import java.util.Arrays;
+
+/**
+ * 多窗口进度条的时间线索引
+ * <p>
+ * 时间线变化时重建一次，保存每个窗口和每个正片在进度条上的起始位置（前缀和）以及广告位置，
+ * 更新进度时直接查表，拖动进度时二分查找
+ * <p>
+ * Created by naivor on 17-8-28.
+ */
+
+public final class TimelineIndex {
+
+    private int windowCount;
+    private int periodCount;
+
+    //窗口在进度条上的起始位置，最后一个是总时长
+    private long[] windowOffsetsUs;
+    //窗口的时长
+    private long[] windowDurationsUs;
+    //周期是否是广告
+    private boolean[] periodIsAd;
+
+    //正片（非广告的周期）在进度条上的起始位置，所在窗口和在窗口中的位置
+    private int contentCount;
+    private long[] contentOffsetsUs;
+    private int[] contentWindowIndexes;
+    private long[] contentPositionsInWindowUs;
+
+    private int adBreakCount;
+    private long[] adBreakTimesMs;
+
+    public TimelineIndex() {
+        windowOffsetsUs = new long[1];
+        windowDurationsUs = new long[0];
+        periodIsAd = new boolean[0];
+        contentOffsetsUs = new long[0];
+        contentWindowIndexes = new int[0];
+        contentPositionsInWindowUs = new long[0];
+        adBreakTimesMs = new long[0];
+    }
+
+    /**
+     * 根据时间线重建索引
+     *
+     * @param timeline
+     * @param window   复用的对象
+     * @param period   复用的对象
+     */
+    public void rebuild(Timeline timeline, Timeline.Window window, Timeline.Period period) {
+        clear();
+
+        if (timeline == null || timeline.isEmpty()) {
+            return;
+        }
+
+        windowCount = timeline.getWindowCount();
+        periodCount = timeline.getPeriodCount();
+        ensureCapacity(windowCount, periodCount);
+
+        long durationUs = 0;
+        boolean isInAdBreak = false;
+        for (int i = 0; i < windowCount; i++) {
+            timeline.getWindow(i, window);
+            windowOffsetsUs[i] = durationUs;
+            windowDurationsUs[i] = window.getDurationUs();
+
+            for (int j = window.firstPeriodIndex; j <= window.lastPeriodIndex; j++) {
+                timeline.getPeriod(j, period);
+                periodIsAd[j] = period.isAd;
+
+                if (period.isAd) {
+                    if (!isInAdBreak) {
+                        isInAdBreak = true;
+                        adBreakTimesMs[adBreakCount++] = C.usToMs(durationUs);
+                    }
+                } else {
+                    isInAdBreak = false;
+
+                    long periodDurationInWindowUs = period.getDurationUs();
+                    long positionInWindowUs = period.getPositionInWindowUs();
+                    if (j == window.firstPeriodIndex) {
+                        periodDurationInWindowUs -= window.positionInFirstPeriodUs;
+                        positionInWindowUs = 0;
+                    }
+
+                    contentOffsetsUs[contentCount] = durationUs;
+                    contentWindowIndexes[contentCount] = i;
+                    contentPositionsInWindowUs[contentCount] = positionInWindowUs;
+                    contentCount++;
+
+                    durationUs += periodDurationInWindowUs;
+                }
+            }
+        }
+        windowOffsetsUs[windowCount] = durationUs;
+    }
+
+    /**
+     * 清空索引
+     */
+    public void clear() {
+        windowCount = 0;
+        periodCount = 0;
+        contentCount = 0;
+        adBreakCount = 0;
+        windowOffsetsUs[0] = 0;
+    }
+
+    /**
+     * 索引是否和时间线对应
+     *
+     * @param timeline
+     * @return
+     */
+    public boolean isValidFor(Timeline timeline) {
+        return timeline != null && timeline.getWindowCount() == windowCount
+                && timeline.getPeriodCount() == periodCount;
+    }
+
+    /**
+     * 进度条的总时长
+     *
+     * @return
+     */
+    public long getDurationMs() {
+        return C.usToMs(windowOffsetsUs[windowCount]);
+    }
+
+    /**
+     * 窗口在进度条上的起始位置
+     *
+     * @param windowIndex
+     * @return
+     */
+    public long getWindowOffsetMs(int windowIndex) {
+        if (windowIndex < 0 || windowIndex > windowCount) {
+            return 0;
+        }
+        return C.usToMs(windowOffsetsUs[windowIndex]);
+    }
+
+    /**
+     * 周期是否是广告
+     *
+     * @param periodIndex
+     * @return
+     */
+    public boolean isAd(int periodIndex) {
+        return periodIndex >= 0 && periodIndex < periodCount && periodIsAd[periodIndex];
+    }
+
+    /**
+     * 进度条上的位置所在的窗口
+     *
+     * @param timebarPositionMs
+     * @return 没有正片返回 C.INDEX_UNSET
+     */
+    public int getWindowIndex(long timebarPositionMs) {
+        int index = findContent(C.msToUs(timebarPositionMs));
+        return index == C.INDEX_UNSET ? C.INDEX_UNSET : contentWindowIndexes[index];
+    }
+
+    /**
+     * 进度条上的位置对应窗口中的位置，超过总时长时是最后一个窗口的结尾
+     *
+     * @param timebarPositionMs
+     * @return
+     */
+    public long getPositionInWindowMs(long timebarPositionMs) {
+        long positionUs = C.msToUs(timebarPositionMs);
+        int index = findContent(positionUs);
+        if (index == C.INDEX_UNSET) {
+            return 0;
+        }
+
+        if (positionUs >= windowOffsetsUs[windowCount]) {
+            return C.usToMs(windowDurationsUs[contentWindowIndexes[index]]);
+        }
+
+        return C.usToMs(contentPositionsInWindowUs[index] + positionUs - contentOffsetsUs[index]);
+    }
+
+    /**
+     * 广告的位置
+     *
+     * @return
+     */
+    public long[] getAdBreakTimesMs() {
+        return adBreakTimesMs;
+    }
+
+    public int getAdBreakCount() {
+        return adBreakCount;
+    }
+
+    /**
+     * 二分查找位置所在的正片
+     *
+     * @param positionUs
+     * @return
+     */
+    private int findContent(long positionUs) {
+        if (contentCount == 0) {
+            return C.INDEX_UNSET;
+        }
+
+        int index = Arrays.binarySearch(contentOffsetsUs, 0, contentCount, positionUs);
+        if (index < 0) {
+            index = -index - 2;   //插入点的前一个
+        } else {
+            //时长为0的正片起始位置相同，取最后一个
+            while (index + 1 < contentCount && contentOffsetsUs[index + 1] == positionUs) {
+                index++;
+            }
+        }
+
+        return Math.max(0, Math.min(index, contentCount - 1));
+    }
+
+    /**
+     * 数组不够时扩容，只在时间线变化时发生
+     *
+     * @param windowCount
+     * @param periodCount
+     */
+    private void ensureCapacity(int windowCount, int periodCount) {
+        if (windowOffsetsUs.length < windowCount + 1) {
+            windowOffsetsUs = new long[windowCount + 1];
+            windowDurationsUs = new long[windowCount];
+        }
+
+        if (periodIsAd.length < periodCount) {
+            periodIsAd = new boolean[periodCount];
+            contentOffsetsUs = new long[periodCount];
+            contentWindowIndexes = new int[periodCount];
+            contentPositionsInWindowUs = new long[periodCount];
+            adBreakTimesMs = new long[periodCount];
+        }
+    }
+}
@@ -17,7 +17,13 @@
 package com.naivor.player.surface;
 
 import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.TextureView;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.ImageView;
 
 import lombok.Getter;
@@ -33,19 +39,235 @@ import timber.log.Timber;
  */
 
 public class VideoPreview {
+
+    public static final int CAPTURE_DELAY_MS = 1000;  //第一帧显示后延迟截取，避开开始播放的时候
+
     @Getter
     @Setter
     protected boolean showPreview = true;  //默认使用预览
     @Getter
-    @Setter
     protected Bitmap defaultPreview;
     @Getter
     protected ImageView preview;
 
+    //截取的第一帧，来自 PreviewBitmapPool，换视频时放回
+    protected Bitmap capturedPreview;
+    protected TextureView captureSource;
+    //截取时 TextureView 必须还在这个容器中，否则已经给别的视频用了
+    protected ViewGroup captureContainer;
+    protected Handler handler;
+
+    //从 PosterCache 取出的封面
+    protected Bitmap cachedPoster;
+
+    //截取到画面的监听，用于保存封面
+    @Setter
+    protected OnPreviewCapturedListener onPreviewCapturedListener;
+
+    //截取第一帧
+    protected final Runnable captureAction = new Runnable() {
+        @Override
+        public void run() {
+            TextureView textureView = captureSource;
+            ViewGroup container = captureContainer;
+            captureSource = null;
+            captureContainer = null;
+
+            if (textureView != null && textureView.getParent() == container) {
+                capture(textureView);
+            }
+        }
+    };
+
 
     public VideoPreview(ImageView videoPreview) {
         this.preview = videoPreview;
 
+        handler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * 设置预览图片，会替换截取的第一帧
+     *
+     * @param bitmap
+     */
+    public void setDefaultPreview(Bitmap bitmap) {
+        if (bitmap != capturedPreview) {
+            clearCapturedPreview();
+        }
+        if (bitmap != cachedPoster) {
+            cachedPoster = null;
+        }
+        this.defaultPreview = bitmap;
+    }
+
+    /**
+     * 显示缓存的封面，已经有封面时不显示
+     *
+     * @param poster
+     */
+    public void setCachedPoster(Bitmap poster) {
+        if (poster == null || preview == null || hasPoster()) {
+            return;
+        }
+
+        cachedPoster = poster;
+        defaultPreview = poster;
+        preview.setImageBitmap(poster);
+    }
+
+    /**
+     * 放弃缓存的封面，换视频时调用
+     */
+    public void clearCachedPoster() {
+        if (cachedPoster == null) {
+            return;
+        }
+
+        if (defaultPreview == cachedPoster) {
+            defaultPreview = null;
+        }
+        removeFromPreview(cachedPoster);
+        cachedPoster = null;
+    }
+
+    /**
+     * 马上截取当前画面，停止播放时调用，截取的画面只交给监听，不替换预览
+     *
+     * @param textureView
+     */
+    public void captureLastFrame(@NonNull TextureView textureView) {
+        if (onPreviewCapturedListener == null || !showPreview) {
+            return;
+        }
+
+        Bitmap bitmap = captureBitmap(textureView);
+        if (bitmap != null) {
+            onPreviewCapturedListener.onPreviewCaptured(bitmap);
+            PreviewBitmapPool.release(bitmap);
+        }
+    }
+
+    /**
+     * 第一帧显示后截取画面作为预览，已经有封面时不截取
+     *
+     * @param textureView
+     * @param container   播放器显示画面的容器
+     */
+    public void capturePreview(@NonNull TextureView textureView, @NonNull ViewGroup container) {
+        if (preview == null || !showPreview || hasPoster()) {
+            return;
+        }
+
+        handler.removeCallbacks(captureAction);
+        captureSource = textureView;
+        captureContainer = container;
+        handler.postDelayed(captureAction, CAPTURE_DELAY_MS);
+    }
+
+    /**
+     * 取消还没执行的截取，停止播放时调用，避免截到下一个视频的画面
+     */
+    public void cancelCapture() {
+        handler.removeCallbacks(captureAction);
+        captureSource = null;
+        captureContainer = null;
+    }
+
+    /**
+     * 放弃截取的第一帧，换视频或释放时调用
+     */
+    public void clearCapturedPreview() {
+        cancelCapture();
+
+        if (capturedPreview == null) {
+            return;
+        }
+
+        if (defaultPreview == capturedPreview) {
+            defaultPreview = null;
+        }
+
+        //还在显示的话先移除，再放回池中
+        removeFromPreview(capturedPreview);
+
+        PreviewBitmapPool.release(capturedPreview);
+        capturedPreview = null;
+    }
+
+    /**
+     * 预览控件正在显示这张图时移除
+     *
+     * @param bitmap
+     */
+    protected void removeFromPreview(Bitmap bitmap) {
+        if (preview != null) {
+            Drawable drawable = preview.getDrawable();
+            if (drawable instanceof BitmapDrawable && ((BitmapDrawable) drawable).getBitmap() == bitmap) {
+                preview.setImageDrawable(null);
+            }
+        }
+    }
+
+    /**
+     * 是否已经有封面，用户设置的或者图片库加载到 ImageView 的
+     *
+     * @return
+     */
+    protected boolean hasPoster() {
+        return defaultPreview != null || (preview != null && preview.getDrawable() != null);
+    }
+
+    /**
+     * 按预览控件的大小截取，不截取视频原始大小
+     *
+     * @param textureView
+     */
+    protected void capture(TextureView textureView) {
+        if (!showPreview || hasPoster()) {
+            return;
+        }
+
+        Bitmap bitmap = captureBitmap(textureView);
+        if (bitmap != null) {
+            capturedPreview = bitmap;
+            defaultPreview = bitmap;
+
+            if (onPreviewCapturedListener != null) {
+                onPreviewCapturedListener.onPreviewCaptured(bitmap);
+            }
+        }
+    }
+
+    /**
+     * 按预览控件的大小截取画面到池中的 Bitmap
+     *
+     * @param textureView
+     * @return 还没有画面时返回null
+     */
+    protected Bitmap captureBitmap(TextureView textureView) {
+        if (textureView == null || !textureView.isAvailable() || preview == null) {
+            return null;
+        }
+
+        int sourceWidth = textureView.getWidth();
+        int sourceHeight = textureView.getHeight();
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            return null;
+        }
+
+        int maxWidth = preview.getWidth() > 0 ? preview.getWidth() : sourceWidth / 2;
+        int maxHeight = preview.getHeight() > 0 ? preview.getHeight() : sourceHeight / 2;
+        float scale = Math.min(1f, Math.min((float) maxWidth / sourceWidth, (float) maxHeight / sourceHeight));
+        int width = Math.max(1, Math.round(sourceWidth * scale));
+        int height = Math.max(1, Math.round(sourceHeight * scale));
+
+        Timber.d("截取画面：%s x %s", width, height);
+
+        Bitmap bitmap = PreviewBitmapPool.acquire(width, height);
+        textureView.getBitmap(bitmap);
+
+        return bitmap;
     }
 
     /**
@@ -110,4 +332,14 @@ public class VideoPreview {
     }
 
 
+    /**
+     * 截取到画面的监听
+     */
+    public interface OnPreviewCapturedListener {
+
+        /**
+         * @param bitmap 回调后会被复用，需要保留时复制一份
+         */
+        void onPreviewCaptured(Bitmap bitmap);
+    }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.surface;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.os.Build;
+import android.view.Surface;
+import android.view.TextureView;
+
+import lombok.NonNull;
+import lombok.Setter;
+import timber.log.Timber;
+
+/**
+ * 显示视频的 TextureView，从父布局移除时保留 SurfaceTexture
+ * <p>
+ * 切换全屏、小窗、列表时只是移动这个 View，解码器一直输出到同一个 Surface，不需要重新配置
+ * <p>
+ * Created by naivor on 17-8-24.
+ */
+
+public class VideoTextureView extends TextureView implements TextureView.SurfaceTextureListener {
+
+    //保留下来的画面
+    private SurfaceTexture savedSurfaceTexture;
+    private Surface surface;
+
+    @Setter
+    private OnSurfaceChangedListener onSurfaceChangedListener;
+
+    public VideoTextureView(@NonNull Context context) {
+        super(context);
+
+        setSurfaceTextureListener(this);
+    }
+
+    /**
+     * 解码器输出的 Surface
+     *
+     * @return 还没有显示过返回null
+     */
+    public Surface getSurface() {
+        return surface;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        //在创建新的画面之前放回保留的画面
+        if (savedSurfaceTexture != null && getSurfaceTexture() != savedSurfaceTexture) {
+            Timber.d("重新使用保留的画面");
+            setSurfaceTexture(savedSurfaceTexture);
+        }
+    }
+
+    @Override
+    public void onSurfaceTextureAvailable(SurfaceTexture surfaceTexture, int width, int height) {
+        if (surfaceTexture != savedSurfaceTexture) {
+            releaseSurface();
+
+            savedSurfaceTexture = surfaceTexture;
+            surface = new Surface(surfaceTexture);
+
+            if (onSurfaceChangedListener != null) {
+                onSurfaceChangedListener.onSurfaceChanged(surface);
+            }
+        }
+    }
+
+    @Override
+    public void onSurfaceTextureSizeChanged(SurfaceTexture surfaceTexture, int width, int height) {
+
+    }
+
+    @Override
+    public boolean onSurfaceTextureDestroyed(SurfaceTexture surfaceTexture) {
+        //5.0以下 setSurfaceTexture 不能在 View 之间保留画面，直接释放
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            savedSurfaceTexture = null;
+            if (surface != null) {
+                surface.release();
+                surface = null;
+            }
+
+            if (onSurfaceChangedListener != null) {
+                onSurfaceChangedListener.onSurfaceChanged(null);
+            }
+            return true;
+        }
+
+        return surfaceTexture != savedSurfaceTexture;
+    }
+
+    @Override
+    public void onSurfaceTextureUpdated(SurfaceTexture surfaceTexture) {
+
+    }
+
+    /**
+     * 释放保留的画面，不再播放时调用
+     */
+    public void release() {
+        if (getSurfaceTexture() == savedSurfaceTexture) {  //还在显示，由 TextureView 释放
+            savedSurfaceTexture = null;
+
+            if (surface != null) {
+                surface.release();
+                surface = null;
+            }
+        } else {
+            releaseSurface();
+        }
+    }
+
+    /**
+     * 释放 Surface 和保留的 SurfaceTexture
+     */
+    private void releaseSurface() {
+        if (surface != null) {
+            surface.release();
+            surface = null;
+        }
+
+        if (savedSurfaceTexture != null) {
+            savedSurfaceTexture.release();
+            savedSurfaceTexture = null;
+        }
+    }
+
+    /**
+     * 画面变化的监听
+     */
+    public interface OnSurfaceChangedListener {
+
+        /**
+         * @param surface 为null时画面已经销毁
+         */
+        void onSurfaceChanged(Surface surface);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.utils;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSourceFactory;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+
+import java.io.File;
+
+import timber.log.Timber;
+
+/**
+ * 视频缓存工具类
+ * <p>
+ * 磁盘缓存，超过大小时按最近最少使用淘汰，缓存索引保存在缓存目录中，重启应用后继续有效
+ * <p>
+ * Created by naivor on 17-8-16.
+ */
+
+public final class CacheUtils {
+
+    public static final String CACHE_DIR = "naivor_video_cache";
+    public static final long DEFAULT_CACHE_SIZE = 256 * 1024 * 1024;  //默认缓存256M
+
+    private static Cache cache;
+
+    //是否开启缓存，默认开启
+    private static boolean cacheEnabled = true;
+    private static long maxCacheSize = DEFAULT_CACHE_SIZE;
+    private static File cacheDir;
+
+    private CacheUtils() {
+    }
+
+    /**
+     * 获取缓存，整个进程共用一个
+     *
+     * @param context
+     * @return
+     */
+    public static synchronized Cache getCache(@NonNull Context context) {
+        if (cache == null) {
+            if (cacheDir == null) {
+                cacheDir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR);
+            }
+
+            Timber.d("创建视频缓存：%s，大小：%s", cacheDir.getAbsolutePath(), maxCacheSize);
+
+            cache = new SimpleCache(cacheDir, new LeastRecentlyUsedCacheEvictor(maxCacheSize));
+        }
+
+        return cache;
+    }
+
+    /**
+     * 是否开启缓存
+     *
+     * @return
+     */
+    public static boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    /**
+     * 开启或关闭缓存，对之后创建的播放源有效
+     *
+     * @param cacheEnabled
+     */
+    public static void setCacheEnabled(boolean cacheEnabled) {
+        CacheUtils.cacheEnabled = cacheEnabled;
+    }
+
+    /**
+     * 设置缓存大小，必须在第一次播放之前设置
+     *
+     * @param maxCacheSize
+     */
+    public static synchronized void setMaxCacheSize(long maxCacheSize) {
+        if (cache != null) {
+            Timber.w("视频缓存已经创建，设置的缓存大小不会生效");
+            return;
+        }
+
+        CacheUtils.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * 设置缓存目录，必须在第一次播放之前设置，同一个目录只能有一个缓存
+     *
+     * @param cacheDir
+     */
+    public static synchronized void setCacheDir(@NonNull File cacheDir) {
+        if (cache != null) {
+            Timber.w("视频缓存已经创建，设置的缓存目录不会生效");
+            return;
+        }
+
+        CacheUtils.cacheDir = cacheDir;
+    }
+
+    /**
+     * 带缓存的数据工厂，优先从缓存读取，没有的再从网络加载并写入缓存
+     * <p>
+     * 不阻塞等待缓存锁，预加载正在写入的数据直接从网络读取，避免和预加载互相等待
+     *
+     * @param context
+     * @param upstreamFactory
+     * @return
+     */
+    public static DataSource.Factory buildCacheDataSourceFactory(@NonNull Context context,
+                                                                 @NonNull DataSource.Factory upstreamFactory) {
+        return new CacheDataSourceFactory(getCache(context), upstreamFactory,
+                CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.utils;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Build;
+
+import lombok.NonNull;
+
+/**
+ * 内存工具类，根据设备内存等级确定播放缓冲的大小
+ * <p>
+ * Created by naivor on 17-8-23.
+ */
+
+public final class MemoryUtils {
+
+    public static final int LOW_MEMORY_CLASS = 64;   //单个应用可用内存（M）
+    public static final int MEDIUM_MEMORY_CLASS = 128;
+
+    private MemoryUtils() {
+    }
+
+    /**
+     * 单个应用可用的内存，单位M
+     *
+     * @param context
+     * @return
+     */
+    public static int getMemoryClass(@NonNull Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager == null ? MEDIUM_MEMORY_CLASS : activityManager.getMemoryClass();
+    }
+
+    /**
+     * 是否是低内存设备
+     *
+     * @param context
+     * @return
+     */
+    public static boolean isLowRamDevice(@NonNull Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            return activityManager != null && activityManager.isLowRamDevice();
+        }
+
+        return false;
+    }
+
+    /**
+     * 播放缓冲大小的比例，低内存设备缓冲小一些
+     *
+     * @param context
+     * @return
+     */
+    public static float getBufferSizeScale(@NonNull Context context) {
+        int memoryClass = getMemoryClass(context);
+
+        if (isLowRamDevice(context) || memoryClass <= LOW_MEMORY_CLASS) {
+            return 0.5f;
+        } else if (memoryClass <= MEDIUM_MEMORY_CLASS) {
+            return 0.75f;
+        }
+
+        return 1f;
+    }
+}
@@ -0,0 +1,618 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.utils;
+
+import android.content.Context;
+import android.os.Process;
+import android.text.TextUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import lombok.NonNull;
+import timber.log.Timber;
+
+/**
+ * 播放记录：每个视频的进度、是否自动暂停，以及最后播放的地址
+ * <p>
+ * 视频地址取 MD5 的前8个字节作为 key，最多保留 MAX_ENTRIES 条，超过时删除最久没用的；
+ * 保存在一个二进制文件中，创建时在后台线程读取，修改后合并成一次异步写入
+ * <p>
+ * 第一次使用时把旧版本保存在 SharedPreferences 中的记录迁移过来并删除
+ * <p>
+ * Created by naivor on 17-8-31.
+ */
+
+public final class PlaybackHistory {
+
+    public static final String HISTORY_FILE = "naivor_history";
+    public static final int MAX_ENTRIES = 1000;  //最多保存的记录数
+    public static final int FLUSH_DELAY_MS = 2000;  //修改后延迟写入，合并多次修改
+
+    private static final int MAGIC = 0x4E504831;  //NPH1
+    private static final int VERSION = 1;
+    private static final byte FLAG_AUTO_PAUSE = 1;
+
+    private static final String SP_AUTO_PAUSE_SUFFIX = "_autoPause";
+
+    //单利
+    private static PlaybackHistory playbackHistory;
+
+    private final File file;
+    private final ScheduledExecutorService executor;
+    private final CountDownLatch loadLatch;
+
+    //按使用顺序排列，最久没用的在前面
+    private final LinkedHashMap<Long, Entry> entries;
+    private String lastUrl;
+
+    private ScheduledFuture<?> flushTask;
+
+    /**
+     * 单例，第一次调用时开始在后台读取
+     *
+     * @param context
+     * @return
+     */
+    public static PlaybackHistory instance(@NonNull Context context) {
+        if (playbackHistory == null) {
+            synchronized (PlaybackHistory.class) {
+                if (playbackHistory == null) {
+                    playbackHistory = new PlaybackHistory(context);
+                }
+            }
+        }
+
+        return playbackHistory;
+    }
+
+    private PlaybackHistory(@NonNull Context context) {
+        final Context appContext = context.getApplicationContext();
+
+        file = new File(appContext.getFilesDir(), HISTORY_FILE);
+        loadLatch = new CountDownLatch(1);
+        lastUrl = "";
+
+        entries = createEntries(MAX_ENTRIES);
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "NaivorHistory");
+            }
+        });
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+                try {
+                    if (file.exists()) {
+                        read();
+                    } else {
+                        migrate(appContext);
+                    }
+                } finally {
+                    loadLatch.countDown();
+                }
+            }
+        });
+    }
+
+    /**
+     * 保存的进度
+     *
+     * @param url
+     * @return 没有时返回0
+     */
+    public long getProgress(String url) {
+        if (TextUtils.isEmpty(url)) {
+            return 0;
+        }
+
+        awaitLoaded();
+        synchronized (this) {
+            Entry entry = entries.get(hashKey(url));
+            return entry == null ? 0 : entry.positionMs;
+        }
+    }
+
+    /**
+     * 保存进度，为0且没有其他信息时删除记录
+     *
+     * @param url
+     * @param positionMs
+     */
+    public void setProgress(String url, long positionMs) {
+        if (TextUtils.isEmpty(url)) {
+            return;
+        }
+
+        awaitLoaded();
+        synchronized (this) {
+            long key = hashKey(url);
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                if (positionMs <= 0) {
+                    return;
+                }
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+
+            entry.positionMs = Math.max(0, positionMs);
+            removeIfEmpty(key, entry);
+        }
+        scheduleFlush(FLUSH_DELAY_MS);
+    }
+
+    /**
+     * 是否自动暂停
+     *
+     * @param url
+     * @return
+     */
+    public boolean isAutoPause(String url) {
+        if (TextUtils.isEmpty(url)) {
+            return false;
+        }
+
+        awaitLoaded();
+        synchronized (this) {
+            Entry entry = entries.get(hashKey(url));
+            return entry != null && entry.autoPause;
+        }
+    }
+
+    /**
+     * 保存自动暂停状态
+     *
+     * @param url
+     * @param autoPause
+     */
+    public void setAutoPause(String url, boolean autoPause) {
+        if (TextUtils.isEmpty(url)) {
+            return;
+        }
+
+        awaitLoaded();
+        synchronized (this) {
+            long key = hashKey(url);
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                if (!autoPause) {
+                    return;
+                }
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+
+            entry.autoPause = autoPause;
+            removeIfEmpty(key, entry);
+        }
+        scheduleFlush(FLUSH_DELAY_MS);
+    }
+
+    /**
+     * 最后播放的地址
+     *
+     * @return
+     */
+    public String getLastUrl() {
+        awaitLoaded();
+        synchronized (this) {
+            return lastUrl;
+        }
+    }
+
+    /**
+     * 保存最后播放的地址
+     *
+     * @param url
+     */
+    public void setLastUrl(String url) {
+        awaitLoaded();
+        synchronized (this) {
+            String newUrl = url == null ? "" : url;
+            if (newUrl.equals(lastUrl)) {
+                return;
+            }
+            lastUrl = newUrl;
+        }
+        scheduleFlush(FLUSH_DELAY_MS);
+    }
+
+    /**
+     * 删除一个视频的记录
+     *
+     * @param url
+     */
+    public void remove(String url) {
+        if (TextUtils.isEmpty(url)) {
+            return;
+        }
+
+        awaitLoaded();
+        synchronized (this) {
+            if (entries.remove(hashKey(url)) == null) {
+                return;
+            }
+        }
+        scheduleFlush(FLUSH_DELAY_MS);
+    }
+
+    /**
+     * 清空所有记录
+     */
+    public void clear() {
+        awaitLoaded();
+        synchronized (this) {
+            entries.clear();
+            lastUrl = "";
+        }
+        scheduleFlush(FLUSH_DELAY_MS);
+    }
+
+    /**
+     * 马上写入，退到后台时调用，避免进程被杀后丢失
+     */
+    public void flush() {
+        scheduleFlush(0);
+    }
+
+    /**
+     * @param key
+     * @param entry
+     */
+    private void removeIfEmpty(long key, Entry entry) {
+        if (entry.positionMs <= 0 && !entry.autoPause) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * 安排写入，已经安排的更早时不重复安排
+     *
+     * @param delayMs
+     */
+    private synchronized void scheduleFlush(long delayMs) {
+        if (flushTask != null && !flushTask.isDone()) {
+            if (flushTask.getDelay(TimeUnit.MILLISECONDS) <= delayMs) {
+                return;
+            }
+            flushTask.cancel(false);
+        }
+
+        flushTask = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+                write();
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 等待后台读取完成，一般在第一次播放前就已经完成
+     */
+    private void awaitLoaded() {
+        boolean interrupted = false;
+        while (loadLatch.getCount() > 0) {
+            try {
+                loadLatch.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 读取文件
+     */
+    private void read() {
+        InputStream inputStream = null;
+        try {
+            inputStream = new BufferedInputStream(new FileInputStream(file));
+
+            synchronized (this) {
+                String url = readFrom(inputStream, entries);
+                if (url == null) {
+                    Timber.w("播放记录格式不对，忽略");
+                    return;
+                }
+                lastUrl = url;
+            }
+
+            Timber.d("读取播放记录：%s 条", entries.size());
+        } catch (IOException e) {
+            Timber.w(e, "读取播放记录失败");
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * 写入文件，先写临时文件再重命名
+     */
+    private void write() {
+        String url;
+        Map<Long, Entry> snapshot;
+
+        synchronized (this) {
+            url = lastUrl;
+            snapshot = new LinkedHashMap<>(entries.size());
+            for (Map.Entry<Long, Entry> mapEntry : entries.entrySet()) {
+                snapshot.put(mapEntry.getKey(), mapEntry.getValue().copy());
+            }
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        OutputStream outputStream = null;
+        try {
+            outputStream = new BufferedOutputStream(new FileOutputStream(tempFile));
+            writeTo(outputStream, url, snapshot);
+            outputStream.close();
+            outputStream = null;
+
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to rename " + tempFile);
+            }
+        } catch (IOException e) {
+            Timber.w(e, "保存播放记录失败");
+            tempFile.delete();
+        } finally {
+            closeQuietly(outputStream);
+        }
+    }
+
+    /**
+     * 迁移旧版本保存在 SharedPreferences 中的记录
+     *
+     * @param context
+     */
+    private void migrate(Context context) {
+        SPUtils.init(context, Utils.SP_VIDEO);
+
+        Map<String, ?> all = SPUtils.getAll();
+
+        boolean hasLegacy = false;
+        for (String key : all.keySet()) {
+            if (isLegacyKey(key)) {
+                hasLegacy = true;
+                break;
+            }
+        }
+
+        if (!hasLegacy) {
+            return;
+        }
+
+        synchronized (this) {
+            String url = readLegacy(all, entries);
+            if (url != null) {
+                lastUrl = url;
+            }
+
+            Timber.d("迁移旧的播放记录：%s 条", entries.size());
+        }
+
+        write();
+
+        //写入成功后再删除旧的
+        if (file.exists()) {
+            for (String key : all.keySet()) {
+                if (isLegacyKey(key)) {
+                    SPUtils.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * 按使用顺序排列的记录，超过 maxEntries 时删除最久没用的
+     *
+     * @param maxEntries
+     * @return
+     */
+    static LinkedHashMap<Long, Entry> createEntries(final int maxEntries) {
+        return new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 写入记录，格式：MAGIC VERSION lastUrl count (key position flags)*，按 entries 的顺序写入，读取后顺序不变
+     *
+     * @param outputStream
+     * @param lastUrl
+     * @param entries
+     * @throws IOException
+     */
+    static void writeTo(OutputStream outputStream, String lastUrl, Map<Long, Entry> entries) throws IOException {
+        DataOutputStream dataOutput = new DataOutputStream(outputStream);
+        dataOutput.writeInt(MAGIC);
+        dataOutput.writeInt(VERSION);
+        dataOutput.writeUTF(lastUrl);
+        dataOutput.writeInt(entries.size());
+        for (Map.Entry<Long, Entry> mapEntry : entries.entrySet()) {
+            dataOutput.writeLong(mapEntry.getKey());
+            dataOutput.writeLong(mapEntry.getValue().positionMs);
+            dataOutput.writeByte(mapEntry.getValue().autoPause ? FLAG_AUTO_PAUSE : 0);
+        }
+        dataOutput.flush();
+    }
+
+    /**
+     * 读取 writeTo 写入的记录
+     *
+     * @param inputStream
+     * @param entries     读到的记录放到这里
+     * @return 最后播放的地址，格式不对时返回null
+     * @throws IOException
+     */
+    static String readFrom(InputStream inputStream, Map<Long, Entry> entries) throws IOException {
+        DataInputStream dataInput = new DataInputStream(inputStream);
+
+        if (dataInput.readInt() != MAGIC || dataInput.readInt() != VERSION) {
+            return null;
+        }
+
+        String url = dataInput.readUTF();
+        int count = dataInput.readInt();
+        for (int i = 0; i < count; i++) {
+            long key = dataInput.readLong();
+
+            Entry entry = new Entry();
+            entry.positionMs = dataInput.readLong();
+            entry.autoPause = (dataInput.readByte() & FLAG_AUTO_PAUSE) != 0;
+            entries.put(key, entry);
+        }
+
+        return url;
+    }
+
+    /**
+     * 是否是旧版本保存的记录：最后播放的地址、自动暂停，或者直接用视频地址作为 key 的进度
+     *
+     * @param key
+     * @return
+     */
+    static boolean isLegacyKey(String key) {
+        return Utils.SP_VIDEO_URL.equals(key) || key.endsWith(SP_AUTO_PAUSE_SUFFIX) || key.contains("://");
+    }
+
+    /**
+     * 把旧版本的记录转换到 entries 中
+     *
+     * @param all     SharedPreferences 中所有的值
+     * @param entries
+     * @return 最后播放的地址，没有时返回null
+     */
+    static String readLegacy(Map<String, ?> all, Map<Long, Entry> entries) {
+        String url = null;
+
+        for (Map.Entry<String, ?> spEntry : all.entrySet()) {
+            String key = spEntry.getKey();
+            Object value = spEntry.getValue();
+
+            if (Utils.SP_VIDEO_URL.equals(key) && value instanceof String) {
+                url = (String) value;
+            } else if (key.endsWith(SP_AUTO_PAUSE_SUFFIX) && value instanceof Boolean) {
+                if ((Boolean) value) {
+                    obtain(entries, key.substring(0, key.length() - SP_AUTO_PAUSE_SUFFIX.length())).autoPause = true;
+                }
+            } else if (key.contains("://") && value instanceof Long) {
+                if ((Long) value > 0) {
+                    obtain(entries, key).positionMs = (Long) value;
+                }
+            }
+        }
+
+        return url;
+    }
+
+    /**
+     * @param entries
+     * @param url
+     * @return
+     */
+    private static Entry obtain(Map<Long, Entry> entries, String url) {
+        long key = hashKey(url);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * 视频地址取 MD5 的前8个字节
+     *
+     * @param url
+     * @return
+     */
+    static long hashKey(String url) {
+        try {
+            byte[] bytes = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+
+            long key = 0;
+            for (int i = 0; i < 8; i++) {
+                key = (key << 8) | (bytes[i] & 0xFF);
+            }
+            return key;
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return url.hashCode();
+        }
+    }
+
+    /**
+     * @param closeable
+     */
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+
+    /**
+     * 一个视频的记录
+     */
+    static final class Entry {
+        long positionMs;
+        boolean autoPause;
+
+        Entry copy() {
+            Entry entry = new Entry();
+            entry.positionMs = positionMs;
+            entry.autoPause = autoPause;
+            return entry;
+        }
+    }
+}
@@ -35,13 +35,16 @@ import com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource;
 import com.google.android.exoplayer2.trackselection.MappingTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelector;
 import com.google.android.exoplayer2.upstream.DataSource;
-import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
 import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
 import com.google.android.exoplayer2.util.Util;
 import com.naivor.player.BuildConfig;
+import com.naivor.player.core.PlaybackMetrics;
 import com.naivor.player.core.PlayerCore;
+import com.naivor.player.core.decorate.VideoBandwidthMeter;
+import com.naivor.player.core.decorate.VideoDataSourceFactory;
 
 import static com.google.android.exoplayer2.C.TYPE_DASH;
 import static com.google.android.exoplayer2.C.TYPE_HLS;
@@ -86,6 +89,19 @@ public final class SourceUtils {
     }
 
 
+    /**
+     * 声音是否混在可切换的视频清晰度中
+     * <p>
+     * DASH、SmoothStreaming 的声音是单独的自适应集；HLS 一般是 TS 分片中音视频混合，
+     * 单独的音频 EXT-X-MEDIA 在轨道中分辨不出来，都按混合处理；单个文件没有其他清晰度可选
+     *
+     * @param uri
+     * @return
+     */
+    public static boolean isAudioMuxed(@NonNull Uri uri) {
+        return getVideoType(uri) == C.TYPE_HLS;
+    }
+
     /**
      * 多媒体数据源
      *
@@ -94,44 +110,68 @@ public final class SourceUtils {
      * @return
      */
     public static MediaSource buildMediaSource(@NonNull Context context, @NonNull Uri uri) {
+        return buildMediaSource(context, uri, true);
+    }
+
+    /**
+     * 多媒体数据源
+     *
+     * @param context
+     * @param uri
+     * @param withMetrics 是否计入播放质量统计，静音预览等额外的播放器不计入，否则会混进有声播放的统计
+     * @return
+     */
+    public static MediaSource buildMediaSource(@NonNull Context context, @NonNull Uri uri, boolean withMetrics) {
         int type = getVideoType(uri);
 
         Context appContext = context.getApplicationContext();
 
-        DataSource.Factory mediaDataSourceFactory = buildDataSourceFactory(appContext, true);
+        //播放质量统计，调试版本同时打印日志
+        PlaybackMetrics playbackMetrics = withMetrics ? PlayerCore.instance(appContext).getPlaybackMetrics() : null;
+
+        //计入统计时由统计转给带宽估算，只统计这个播放源的流量
+        TransferListener<Object> transferListener = buildBandwidthMeter(appContext);
+        if (playbackMetrics != null) {
+            transferListener = playbackMetrics;
+        }
 
-        EventLogger eventLogger = null;
-        if (BuildConfig.DEBUG) {   //打印调试日志
+        //媒体数据默认走磁盘缓存，播放列表不缓存
+        DataSource.Factory mediaDataSourceFactory = buildDataSourceFactory(appContext, transferListener, true);
+
+        if (playbackMetrics != null && BuildConfig.DEBUG) {   //打印调试日志
             TrackSelector trackSelector = PlayerCore.instance(appContext).getTrackSelector();
             if (trackSelector != null && trackSelector instanceof MappingTrackSelector) {
-                eventLogger = new EventLogger((MappingTrackSelector) trackSelector);
+                playbackMetrics.setEventLogger(new EventLogger((MappingTrackSelector) trackSelector));
+            } else {
+                playbackMetrics.setEventLogger(null);
             }
         }
 
         switch (type) {
             case TYPE_SS:
                 return new SsMediaSource(uri, buildDataSourceFactory(appContext, false),
-                        new DefaultSsChunkSource.Factory(mediaDataSourceFactory), mainHandler, eventLogger);
+                        new DefaultSsChunkSource.Factory(mediaDataSourceFactory), mainHandler, playbackMetrics);
             case TYPE_DASH:
                 return new DashMediaSource(uri, buildDataSourceFactory(appContext, false),
-                        new DefaultDashChunkSource.Factory(mediaDataSourceFactory), mainHandler, eventLogger);
+                        new DefaultDashChunkSource.Factory(mediaDataSourceFactory), mainHandler, playbackMetrics);
             case TYPE_HLS:
-                return new HlsMediaSource(uri, mediaDataSourceFactory, mainHandler, eventLogger);
+                return new HlsMediaSource(uri, mediaDataSourceFactory, mainHandler, playbackMetrics);
             case TYPE_OTHER:
                 return new ExtractorMediaSource(uri, mediaDataSourceFactory, new DefaultExtractorsFactory(), mainHandler,
-                        eventLogger);
+                        playbackMetrics);
             default:
                 throw new IllegalStateException("Unsupported type: " + type);
         }
     }
 
     /**
-     * 带宽
+     * 带宽，所有播放源共用播放器核心中的一个，切换视频时不需要重新估算
      *
+     * @param context
      * @return
      */
-    public static DefaultBandwidthMeter buildBandwidthMeter() {
-        return new DefaultBandwidthMeter();
+    public static VideoBandwidthMeter buildBandwidthMeter(@NonNull Context context) {
+        return PlayerCore.instance(context).getBandwidthMeter();
     }
 
     /**
@@ -141,7 +181,41 @@ public final class SourceUtils {
      * @return
      */
     public static DataSource.Factory buildDataSourceFactory(@NonNull Context context, boolean useBandwidthMeter) {
-        return buildDataSourceFactory(context, useBandwidthMeter ? buildBandwidthMeter() : null);
+        return buildDataSourceFactory(context, useBandwidthMeter ? buildBandwidthMeter(context) : null);
+    }
+
+    /**
+     * 数据工厂
+     *
+     * @param context
+     * @param useBandwidthMeter
+     * @param useCache          是否使用磁盘缓存，关闭缓存时无效
+     * @return
+     */
+    public static DataSource.Factory buildDataSourceFactory(@NonNull Context context, boolean useBandwidthMeter,
+                                                            boolean useCache) {
+        return buildDataSourceFactory(context, useBandwidthMeter ? buildBandwidthMeter(context) : null, useCache);
+    }
+
+    /**
+     * 数据工厂
+     *
+     * @param context
+     * @param transferListener 传输监听，为空时不估算带宽
+     * @param useCache         是否使用磁盘缓存，关闭缓存时无效
+     * @return
+     */
+    public static DataSource.Factory buildDataSourceFactory(@NonNull Context context,
+                                                            TransferListener<? super DataSource> transferListener,
+                                                            boolean useCache) {
+        DataSource.Factory upstreamFactory = buildDataSourceFactory(context, transferListener);
+
+        if (useCache && CacheUtils.isCacheEnabled()) {
+            return new VideoDataSourceFactory(CacheUtils.buildCacheDataSourceFactory(context, upstreamFactory),
+                    upstreamFactory);
+        }
+
+        return upstreamFactory;
     }
 
     /**
@@ -151,7 +225,8 @@ public final class SourceUtils {
      * @param bandwidthMeter
      * @return
      */
-    public static DataSource.Factory buildDataSourceFactory(@NonNull Context context, DefaultBandwidthMeter bandwidthMeter) {
+    public static DataSource.Factory buildDataSourceFactory(@NonNull Context context,
+                                                            TransferListener<? super DataSource> bandwidthMeter) {
         return new DefaultDataSourceFactory(context, bandwidthMeter,
                 buildHttpDataSourceFactory(context, bandwidthMeter));
     }
@@ -163,7 +238,8 @@ public final class SourceUtils {
      * @param bandwidthMeter
      * @return
      */
-    public static HttpDataSource.Factory buildHttpDataSourceFactory(@NonNull Context context, DefaultBandwidthMeter bandwidthMeter) {
+    public static HttpDataSource.Factory buildHttpDataSourceFactory(@NonNull Context context,
+                                                                    TransferListener<? super DataSource> bandwidthMeter) {
         return new DefaultHttpDataSourceFactory(getUserAgent(context), bandwidthMeter);
     }
 
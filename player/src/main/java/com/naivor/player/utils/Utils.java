@@ -53,6 +53,8 @@ public final class Utils {
 
         SPUtils.init(context, SP_VIDEO);
 
+        //提前在后台读取播放记录
+        PlaybackHistory.instance(context);
 
     }
 
@@ -128,7 +128,7 @@ public final class VideoUtils {
      * @param progress
      */
     public static void saveProgress(String url, long progress) {
-        SPUtils.save(url, progress);
+        PlaybackHistory.instance(Utils.context()).setProgress(url, progress);
     }
 
     /**
@@ -138,7 +138,7 @@ public final class VideoUtils {
      * @return
      */
     public static long getSavedProgress(String url) {
-        return SPUtils.getLong(url, 0L);
+        return PlaybackHistory.instance(Utils.context()).getProgress(url);
     }
 
     /**
@@ -150,9 +150,9 @@ public final class VideoUtils {
 
         if (TextUtils.isEmpty(url)) {
 
-            SPUtils.clear();
+            PlaybackHistory.instance(Utils.context()).clear();
         } else {
-            SPUtils.save(url, 0L);
+            PlaybackHistory.instance(Utils.context()).setProgress(url, 0L);
         }
     }
 
@@ -162,7 +162,7 @@ public final class VideoUtils {
      * @param url
      */
     public static void saveAutoPause(@NonNull String url) {
-        SPUtils.save(url + "_autoPause", true);
+        PlaybackHistory.instance(Utils.context()).setAutoPause(url, true);
 
     }
 
@@ -173,7 +173,7 @@ public final class VideoUtils {
      * @return
      */
     public static boolean isAutoPause(@NonNull String url) {
-        return SPUtils.getBoolean(url + "_autoPause", false);
+        return PlaybackHistory.instance(Utils.context()).isAutoPause(url);
     }
 
     /**
@@ -185,9 +185,9 @@ public final class VideoUtils {
 
         if (TextUtils.isEmpty(url)) {
 
-            SPUtils.clear();
+            PlaybackHistory.instance(Utils.context()).clear();
         } else {
-            SPUtils.save(url + "_autoPause", false);
+            PlaybackHistory.instance(Utils.context()).setAutoPause(url, false);
         }
     }
 
@@ -197,7 +197,7 @@ public final class VideoUtils {
      * @param url
      */
     public static void saveLastUrl(String url) {
-        SPUtils.save(Utils.SP_VIDEO_URL, url);
+        PlaybackHistory.instance(Utils.context()).setLastUrl(url);
 
     }
 
@@ -207,7 +207,7 @@ public final class VideoUtils {
      * @return
      */
     public static String getLastUrl() {
-        return SPUtils.getString(Utils.SP_VIDEO_URL, "");
+        return PlaybackHistory.instance(Utils.context()).getLastUrl();
     }
 
 
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.core;
+
+import com.naivor.player.controll.PositionController;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 定时保存进度的测试：停止时保留进度，只有播放完成时清除
+ * <p>
+ * Created by naivor on 17-9-5.
+ */
+
+public class ProgressCheckpointerTest {
+
+    private static final String URL = "http://example.com/a.mp4";
+
+    private FakePosition position;
+    private FakeStore store;
+    private ProgressCheckpointer checkpointer;
+
+    @Before
+    public void setUp() {
+        position = new FakePosition();
+        store = new FakeStore();
+        checkpointer = new ProgressCheckpointer(position, store);
+    }
+
+    @Test
+    public void stop_keepsCheckpoint() {
+        checkpointer.start(URL);
+        position.positionMs = 30000;
+        checkpointer.checkpoint();
+        checkpointer.stop();
+
+        assertEquals(Long.valueOf(30000), store.progress.get(URL));
+        assertFalse(store.cleared);
+    }
+
+    @Test
+    public void complete_clearsCheckpoint() {
+        checkpointer.start(URL);
+        position.positionMs = 30000;
+        checkpointer.checkpoint();
+        checkpointer.complete(URL);
+
+        assertFalse(store.progress.containsKey(URL));
+        assertTrue(store.cleared);
+    }
+
+    @Test
+    public void checkpoint_skipsSmallChanges() {
+        checkpointer.start(URL);
+        position.positionMs = 30000;
+        checkpointer.checkpoint();
+
+        position.positionMs = 30000 + ProgressCheckpointer.MIN_CHANGE_MS - 1;
+        checkpointer.checkpoint();
+        assertEquals(Long.valueOf(30000), store.progress.get(URL));
+
+        position.positionMs = 30000 + ProgressCheckpointer.MIN_CHANGE_MS;
+        checkpointer.checkpoint();
+        assertEquals(Long.valueOf(30000 + ProgressCheckpointer.MIN_CHANGE_MS), store.progress.get(URL));
+    }
+
+    private static final class FakeStore implements ProgressCheckpointer.Store {
+
+        final Map<String, Long> progress = new HashMap<>();
+        boolean cleared;
+
+        @Override
+        public void saveProgress(String url, long positionMs) {
+            progress.put(url, positionMs);
+        }
+
+        @Override
+        public void clearProgress(String url) {
+            progress.remove(url);
+            cleared = true;
+        }
+    }
+
+    private static final class FakePosition implements PositionController {
+
+        long positionMs;
+
+        @Override
+        public void seekTo(long millisecond) {
+        }
+
+        @Override
+        public void fastward(long millisecond) {
+        }
+
+        @Override
+        public void backward(long millisecond) {
+        }
+
+        @Override
+        public long getCurrentDuration() {
+            return positionMs;
+        }
+
+        @Override
+        public long getTotalDuration() {
+            return 0;
+        }
+    }
+}
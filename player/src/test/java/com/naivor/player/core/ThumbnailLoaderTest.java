@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.core;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 缩略图 WebVTT 解析和查找的测试
+ * <p>
+ * Created by naivor on 17-9-5.
+ */
+
+public class ThumbnailLoaderTest {
+
+    private static final String VTT_URL = "http://example.com/video/thumbnails.vtt";
+
+    private static final String VTT = "WEBVTT\n"
+            + "\n"
+            + "00:00:10.000 --> 00:00:20.000\n"
+            + "sprite.jpg#xywh=160,0,160,90\n"
+            + "\n"
+            + "00:00:00.000 --> 00:00:10.000\n"
+            + "sprite.jpg#xywh=0,0,160,90\n"
+            + "\n"
+            + "00:00:20.000 --> 00:00:30.000\n"
+            + "sprite.jpg#xywh=bad\n"
+            + "\n"
+            + "01:00:00.000 --> 01:00:10.000\r\n"
+            + "http://cdn.example.com/last.jpg\r\n";
+
+    @Test
+    public void parseCues_sortsAndResolves() {
+        List<ThumbnailLoader.Cue> cues = ThumbnailLoader.parseCues(VTT_URL, VTT);
+
+        //无效的 xywh 被跳过
+        assertEquals(3, cues.size());
+
+        assertCue(cues.get(0), 0, "http://example.com/video/sprite.jpg", 0, 0, 160, 90);
+        assertCue(cues.get(1), 10000, "http://example.com/video/sprite.jpg", 160, 0, 160, 90);
+        assertCue(cues.get(2), 3600000, "http://cdn.example.com/last.jpg", 0, 0, 0, 0);
+    }
+
+    @Test
+    public void parseCues_sameImageDifferentKeys() {
+        List<ThumbnailLoader.Cue> cues = ThumbnailLoader.parseCues(VTT_URL, VTT);
+
+        assertEquals(cues.get(0).imageUrl, cues.get(1).imageUrl);
+        assertTrue(!cues.get(0).key.equals(cues.get(1).key));
+    }
+
+    @Test
+    public void parseCues_empty() {
+        assertTrue(ThumbnailLoader.parseCues(VTT_URL, "WEBVTT\n").isEmpty());
+        assertTrue(ThumbnailLoader.parseCues(VTT_URL, "WEBVTT\n\n00:00:00.000 --> 00:00:10.000\n").isEmpty());
+    }
+
+    @Test
+    public void findCue_binarySearch() {
+        List<ThumbnailLoader.Cue> cues = ThumbnailLoader.parseCues(VTT_URL, VTT);
+
+        assertEquals(0, ThumbnailLoader.findCue(cues, -1));
+        assertEquals(0, ThumbnailLoader.findCue(cues, 0));
+        assertEquals(0, ThumbnailLoader.findCue(cues, 9999));
+        assertEquals(1, ThumbnailLoader.findCue(cues, 10000));
+        assertEquals(1, ThumbnailLoader.findCue(cues, 3599999));
+        assertEquals(2, ThumbnailLoader.findCue(cues, 3600000));
+        assertEquals(2, ThumbnailLoader.findCue(cues, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void calculateSampleSize_keepsThumbnailWidth() {
+        //缩略图本来就比需要的窄，不缩小
+        assertEquals(1, ThumbnailLoader.calculateSampleSize(1600, 900, 160, 320));
+        assertEquals(2, ThumbnailLoader.calculateSampleSize(3200, 1800, 320, 160));
+
+        //单张大图缩小到不窄于需要的宽度
+        assertEquals(8, ThumbnailLoader.calculateSampleSize(4000, 3000, 4000, 480));
+    }
+
+    @Test
+    public void calculateSampleSize_limitsPixels() {
+        //像素太多时不管缩略图宽度继续缩小
+        assertEquals(8, ThumbnailLoader.calculateSampleSize(10240, 10240, 160, 320));
+    }
+
+    private static void assertCue(ThumbnailLoader.Cue cue, long startMs, String imageUrl,
+                                  int x, int y, int width, int height) {
+        assertEquals(startMs, cue.startMs);
+        assertEquals(imageUrl, cue.imageUrl);
+        assertEquals(x, cue.x);
+        assertEquals(y, cue.y);
+        assertEquals(width, cue.width);
+        assertEquals(height, cue.height);
+    }
+}
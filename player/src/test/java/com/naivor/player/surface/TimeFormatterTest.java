@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.surface;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 时间格式的测试，和 Util.getStringForTime 一致
+ * <p>
+ * Created by naivor on 17-9-5.
+ */
+
+public class TimeFormatterTest {
+
+    @Test
+    public void format_minutesAndSeconds() {
+        assertFormat("00:00", 0);
+        assertFormat("00:09", 9);
+        assertFormat("01:05", 65);
+        assertFormat("59:59", 3599);
+    }
+
+    @Test
+    public void format_hours() {
+        assertFormat("1:00:00", 3600);
+        assertFormat("10:01:01", 36061);
+        assertFormat("100:00:00", 360000);
+    }
+
+    @Test
+    public void format_reusesBuffer() {
+        TimeFormatter formatter = new TimeFormatter();
+
+        formatter.format(36061);
+        assertEquals("10:01:01", formatter.getText());
+
+        //变短以后不能留下上次的内容
+        formatter.format(5);
+        assertEquals("00:05", formatter.getText());
+    }
+
+    private static void assertFormat(String expected, long totalSeconds) {
+        TimeFormatter formatter = new TimeFormatter();
+        formatter.format(totalSeconds);
+        assertEquals(expected, formatter.getText());
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2017. Naivor.All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.naivor.player.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 播放记录文件格式、数量限制和旧记录迁移的测试
+ * <p>
+ * Created by naivor on 17-9-5.
+ */
+
+public class PlaybackHistoryTest {
+
+    private static final String URL_A = "http://example.com/a.mp4";
+    private static final String URL_B = "http://example.com/b.m3u8";
+    private static final String URL_C = "https://example.com/c.mpd";
+
+    @Test
+    public void writeThenRead_keepsEntriesAndOrder() throws IOException {
+        LinkedHashMap<Long, PlaybackHistory.Entry> entries = PlaybackHistory.createEntries(10);
+        put(entries, URL_A, 1000, false);
+        put(entries, URL_B, 0, true);
+        put(entries, URL_C, Long.MAX_VALUE, true);
+
+        LinkedHashMap<Long, PlaybackHistory.Entry> read = PlaybackHistory.createEntries(10);
+        String lastUrl = PlaybackHistory.readFrom(
+                new ByteArrayInputStream(write(URL_B, entries)), read);
+
+        assertEquals(URL_B, lastUrl);
+        assertEquals(new ArrayList<>(entries.keySet()), new ArrayList<>(read.keySet()));
+
+        assertEntry(read, URL_A, 1000, false);
+        assertEntry(read, URL_B, 0, true);
+        assertEntry(read, URL_C, Long.MAX_VALUE, true);
+    }
+
+    @Test
+    public void writeThenRead_empty() throws IOException {
+        LinkedHashMap<Long, PlaybackHistory.Entry> read = PlaybackHistory.createEntries(10);
+        String lastUrl = PlaybackHistory.readFrom(
+                new ByteArrayInputStream(write("", PlaybackHistory.createEntries(10))), read);
+
+        assertEquals("", lastUrl);
+        assertTrue(read.isEmpty());
+    }
+
+    @Test
+    public void read_wrongMagic_returnsNull() throws IOException {
+        byte[] data = write(URL_A, PlaybackHistory.createEntries(10));
+        data[0] ^= 0xFF;
+
+        Map<Long, PlaybackHistory.Entry> read = PlaybackHistory.createEntries(10);
+        assertNull(PlaybackHistory.readFrom(new ByteArrayInputStream(data), read));
+        assertTrue(read.isEmpty());
+    }
+
+    @Test
+    public void read_overCap_keepsMostRecent() throws IOException {
+        LinkedHashMap<Long, PlaybackHistory.Entry> entries = PlaybackHistory.createEntries(10);
+        for (int i = 0; i < 5; i++) {
+            put(entries, URL_A + i, i + 1, false);
+        }
+
+        //读取到更小的容量中，先读到的最久没用，被删除
+        LinkedHashMap<Long, PlaybackHistory.Entry> read = PlaybackHistory.createEntries(3);
+        PlaybackHistory.readFrom(new ByteArrayInputStream(write(URL_A, entries)), read);
+
+        assertEquals(3, read.size());
+        assertFalse(read.containsKey(PlaybackHistory.hashKey(URL_A + 0)));
+        assertFalse(read.containsKey(PlaybackHistory.hashKey(URL_A + 1)));
+        assertEntry(read, URL_A + 4, 5, false);
+    }
+
+    @Test
+    public void cap_evictsLeastRecentlyUsed() throws IOException {
+        LinkedHashMap<Long, PlaybackHistory.Entry> entries = PlaybackHistory.createEntries(2);
+        put(entries, URL_A, 1, false);
+        put(entries, URL_B, 2, false);
+
+        //用过 A 以后，B 是最久没用的
+        entries.get(PlaybackHistory.hashKey(URL_A));
+        put(entries, URL_C, 3, false);
+
+        assertEquals(2, entries.size());
+        assertFalse(entries.containsKey(PlaybackHistory.hashKey(URL_B)));
+
+        //写入再读取后使用顺序不变
+        LinkedHashMap<Long, PlaybackHistory.Entry> read = PlaybackHistory.createEntries(2);
+        PlaybackHistory.readFrom(new ByteArrayInputStream(write(URL_C, entries)), read);
+
+        List<Long> expected = new ArrayList<>();
+        expected.add(PlaybackHistory.hashKey(URL_A));
+        expected.add(PlaybackHistory.hashKey(URL_C));
+        assertEquals(expected, new ArrayList<>(read.keySet()));
+    }
+
+    @Test
+    public void hashKey_stableAndDistinct() {
+        assertEquals(PlaybackHistory.hashKey(URL_A), PlaybackHistory.hashKey(new String(URL_A)));
+        assertNotEquals(PlaybackHistory.hashKey(URL_A), PlaybackHistory.hashKey(URL_B));
+
+        //MD5("") 的前8个字节
+        assertEquals(0xd41d8cd98f00b204L, PlaybackHistory.hashKey(""));
+    }
+
+    @Test
+    public void readLegacy_convertsSharedPreferences() {
+        Map<String, Object> all = new HashMap<>();
+        all.put(Utils.SP_VIDEO_URL, URL_C);
+        all.put(URL_A, 3000L);
+        all.put(URL_B, 0L);
+        all.put(URL_B + "_autoPause", true);
+        all.put(URL_C + "_autoPause", false);
+        all.put("other_setting", 1);
+
+        Map<Long, PlaybackHistory.Entry> entries = PlaybackHistory.createEntries(10);
+        String lastUrl = PlaybackHistory.readLegacy(all, entries);
+
+        assertEquals(URL_C, lastUrl);
+        assertEquals(2, entries.size());
+        assertEntry(entries, URL_A, 3000, false);
+        assertEntry(entries, URL_B, 0, true);
+
+        assertTrue(PlaybackHistory.isLegacyKey(Utils.SP_VIDEO_URL));
+        assertTrue(PlaybackHistory.isLegacyKey(URL_A));
+        assertTrue(PlaybackHistory.isLegacyKey(URL_C + "_autoPause"));
+        assertFalse(PlaybackHistory.isLegacyKey("other_setting"));
+    }
+
+    @Test
+    public void readLegacy_withoutUrl_returnsNull() {
+        Map<Long, PlaybackHistory.Entry> entries = PlaybackHistory.createEntries(10);
+
+        assertNull(PlaybackHistory.readLegacy(new HashMap<String, Object>(), entries));
+        assertTrue(entries.isEmpty());
+    }
+
+    private static void put(Map<Long, PlaybackHistory.Entry> entries, String url, long positionMs,
+                            boolean autoPause) {
+        PlaybackHistory.Entry entry = new PlaybackHistory.Entry();
+        entry.positionMs = positionMs;
+        entry.autoPause = autoPause;
+        entries.put(PlaybackHistory.hashKey(url), entry);
+    }
+
+    private static void assertEntry(Map<Long, PlaybackHistory.Entry> entries, String url, long positionMs,
+                                    boolean autoPause) {
+        PlaybackHistory.Entry entry = entries.get(PlaybackHistory.hashKey(url));
+        assertEquals(positionMs, entry.positionMs);
+        assertEquals(autoPause, entry.autoPause);
+    }
+
+    private static byte[] write(String lastUrl, Map<Long, PlaybackHistory.Entry> entries) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        PlaybackHistory.writeTo(outputStream, lastUrl, entries);
+        return outputStream.toByteArray();
+    }
+}
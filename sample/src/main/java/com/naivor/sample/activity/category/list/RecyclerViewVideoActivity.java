@@ -9,9 +9,13 @@ import android.support.v7.widget.RecyclerView;
 import android.view.MenuItem;
 
 import com.naivor.player.VideoPlayer;
+import com.naivor.player.core.VideoUrlProvider;
 import com.naivor.sample.R;
 import com.naivor.sample.adapter.VideoRecyclerAdapter;
 import com.naivor.sample.data.DataRepo;
+import com.naivor.sample.data.VideoUrl;
+
+import java.util.List;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -52,7 +56,16 @@ public class RecyclerViewVideoActivity extends AppCompatActivity {
         recyclerAdapter = new VideoRecyclerAdapter(context);
         rvContent.setAdapter(recyclerAdapter);
 
-        recyclerAdapter.setItems(DataRepo.get(context).getVideoUrls());
+        final List<VideoUrl> videoUrls = DataRepo.get(context).getVideoUrls();
+        recyclerAdapter.setItems(videoUrls);
+
+        // 预加载滑动方向上的2个视频
+        VideoPlayer.preloadVideoInList(new VideoUrlProvider() {
+            @Override
+            public String getVideoUrl(int position) {
+                return position < videoUrls.size() ? videoUrls.get(position).getUrl() : null;
+            }
+        }, 2);
 
     }
 